@@ -1,5 +1,6 @@
 package com.github.fakemongo;
 
+import com.github.fakemongo.impl.OperatorRegistry;
 import com.mongodb.DB;
 import com.mongodb.FongoDB;
 import com.mongodb.MockMongoClient;
@@ -22,6 +23,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,6 +61,10 @@ public class Fongo implements OperationExecutor {
   private final String name;
   private final ServerVersion serverVersion;
   private final CodecRegistry codecRegistry;
+  private volatile int maxDocumentsPerCollection = 0;
+  private final FongoServerCursors serverCursors = new FongoServerCursors();
+  private final OperatorRegistry operatorRegistry = new OperatorRegistry();
+  private final AtomicInteger lastOpid = new AtomicInteger();
 
   /**
    * @param name Used only for a nice toString in case you have multiple instances
@@ -238,4 +244,52 @@ public class Fongo implements OperationExecutor {
     return serverVersion;
   }
 
+  /**
+   * Maximum number of documents a collection can hold, 0 (the default) means unlimited.
+   *
+   * @return the maximum number of documents per collection.
+   */
+  public int getMaxDocumentsPerCollection() {
+    return maxDocumentsPerCollection;
+  }
+
+  /**
+   * Limit the number of documents per collection, an insert beyond this limit will fail.
+   * Useful to catch runaway tests, 0 or less means unlimited.
+   *
+   * @param maxDocumentsPerCollection the maximum number of documents per collection.
+   */
+  public void setMaxDocumentsPerCollection(int maxDocumentsPerCollection) {
+    this.maxDocumentsPerCollection = Math.max(0, maxDocumentsPerCollection);
+  }
+
+  /**
+   * Operators of the queries added to the operators of fongo, for the collections of this fongo only.
+   *
+   * @return the registry of the operators.
+   */
+  public OperatorRegistry getOperatorRegistry() {
+    return operatorRegistry;
+  }
+
+  FongoServerCursors getServerCursors() {
+    return serverCursors;
+  }
+
+  /**
+   * Close the server cursors of a collection, when it is dropped.
+   *
+   * @param ns full name of the collection.
+   */
+  public void killCursors(String ns) {
+    serverCursors.killAll(ns);
+  }
+
+  /**
+   * @return a new id of operation for the currentOp command, unique on this fongo.
+   */
+  public int nextOpid() {
+    return lastOpid.incrementAndGet();
+  }
+
 }
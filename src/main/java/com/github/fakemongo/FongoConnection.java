@@ -23,6 +23,7 @@ import static com.mongodb.FongoDBCollection.decoderContext;
 import com.mongodb.InsertManyWriteConcernException;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoCommandException;
+import com.mongodb.MongoCursorNotFoundException;
 import com.mongodb.MongoNamespace;
 import com.mongodb.WriteConcern;
 import com.mongodb.WriteConcernException;
@@ -108,11 +109,13 @@ public class FongoConnection implements Connection {
   public WriteConcernResult insert(MongoNamespace namespace, boolean ordered, WriteConcern writeConcern, List<InsertRequest> inserts) {
     LOG.debug("insert() namespace:{} inserts:{}", namespace, inserts);
     final DBCollection collection = dbCollection(namespace);
+    final List<DBObject> documents = new ArrayList<DBObject>(inserts.size());
     for (InsertRequest insert : inserts) {
       final DBObject parse = dbObject(insert.getDocument());
-      collection.insert(parse, writeConcern);
+      documents.add(parse);
       LOG.debug("insert() namespace:{} insert:{}, parse:{}", namespace, insert.getDocument(), parse.getClass());
     }
+    collection.insert(documents, writeConcern);
     if (writeConcern.isAcknowledged()) {
       return WriteConcernResult.acknowledged(inserts.size(), false, null);
     } else {
@@ -471,8 +474,19 @@ public class FongoConnection implements Connection {
         DBObject keys = dbObject(bsonDocument.getDocument("key"));
         String name = bsonDocument.getString("name").getValue();
         boolean unique = bsonDocument.getBoolean("unique", BsonBoolean.FALSE).getValue();
+        boolean background = bsonDocument.getBoolean("background", BsonBoolean.FALSE).getValue();
 
-        dbCollection.createIndex(keys, name, unique);
+        final DBObject options = new BasicDBObject();
+        if (name != null && name.length() > 0) {
+          options.put("name", name);
+        }
+        if (unique) {
+          options.put("unique", true);
+        }
+        if (background) {
+          options.put("background", true);
+        }
+        dbCollection.createIndex(keys, options);
       }
 
       return (T) new BsonDocument("ok", BsonBoolean.TRUE);
@@ -506,9 +520,11 @@ public class FongoConnection implements Connection {
     } else if (command.containsKey("insert")) {
       final FongoDBCollection dbCollection = (FongoDBCollection) db.getCollection(command.get("insert").asString().getValue());
       List<BsonValue> documentsToInsert = command.getArray("documents").getValues();
+      final List<DBObject> documents = new ArrayList<DBObject>(documentsToInsert.size());
       for (BsonValue document : documentsToInsert) {
-        dbCollection.insert(dbObject(document.asDocument()));
+        documents.add(dbObject(document.asDocument()));
       }
+      dbCollection.insert(documents);
       return (T) new Document("ok", 1).append("n", documentsToInsert.size());
     } else if (command.containsKey("delete")) {
       final FongoDBCollection dbCollection = (FongoDBCollection) db.getCollection(command.get("delete").asString().getValue());
@@ -562,11 +578,39 @@ public class FongoConnection implements Connection {
       cur.limit(limit.getValue());
       cur.skip(skip.getValue());
       cur.maxScan(maxScan.getValue());
-      final List<Document> each = documents(cur.toArray());
+      // Without batchSize, everything is in the first batch.
+      final List<Document> each = documents(FongoServerCursors.nextBatch(cur, getValue(command, "batchSize", 0).getValue()));
+      final long cursorId = command.getBoolean("singleBatch", BsonBoolean.FALSE).getValue() ? 0L : fongo.getServerCursors().open(dbCollection.getFullName(), cur, command.getBoolean("noCursorTimeout", BsonBoolean.FALSE).getValue());
 //      return (T) new BsonDocument("cursor", new BsonDocument("id",
 //          new BsonInt64(0)).append("ns", new BsonString(dbCollection.getFullName()))
 //          .append("firstBatch", FongoBsonArrayWrapper.bsonArrayWrapper(each)));
-      return reencode(commandResultDecoder, "cursor", new BasicDBObject("id", 0L).append("ns", dbCollection.getFullName()).append("firstBatch", each));
+      return reencode(commandResultDecoder, "cursor", new BasicDBObject("id", cursorId).append("ns", dbCollection.getFullName()).append("firstBatch", each));
+    } else if (command.containsKey("getMore")) {
+      final long cursorId = command.getInt64("getMore").getValue();
+      final Iterator<DBObject> results = fongo.getServerCursors().get(cursorId);
+      if (results == null) {
+        throw new MongoCursorNotFoundException(cursorId, fongo.getServerAddress());
+      }
+      final List<Document> each = documents(FongoServerCursors.nextBatch(results, getValue(command, "batchSize", 0).getValue()));
+      final String ns = database + "." + command.getString("collection").getValue();
+      return reencode(commandResultDecoder, "cursor", new BasicDBObject("id", fongo.getServerCursors().closeIfExhausted(cursorId, results)).append("ns", ns).append("nextBatch", each));
+    } else if (command.containsKey("killCursors")) {
+      final BsonArray killed = new BsonArray();
+      final BsonArray notFound = new BsonArray();
+      for (BsonValue cursorId : command.getArray("cursors")) {
+        if (fongo.getServerCursors().kill(cursorId.asInt64().getValue())) {
+          killed.add(cursorId);
+        } else {
+          notFound.add(cursorId);
+        }
+      }
+      return (T) new BsonDocument("cursorsKilled", killed).append("cursorsNotFound", notFound)
+          .append("cursorsAlive", new BsonArray()).append("cursorsUnknown", new BsonArray()).append("ok", new BsonDouble(1.0));
+    } else if (command.containsKey("planCacheListPlans")) {
+      final FongoDBCollection dbCollection = (FongoDBCollection) db.getCollection(command.get("planCacheListPlans").asString().getValue());
+      final DBObject result = dbCollection.planCacheListPlans(dbObject(command, "query"));
+      result.put("ok", 1.0);
+      return commandResultDecoder.decode(new BsonDocumentReader(bsonDocument(result)), decoderContext());
     } else if (command.containsKey("listDatabases")) {
       final List<String> databaseNames = fongo.getDatabaseNames();
       final List<BsonDocument> documents = new ArrayList<BsonDocument>();
@@ -678,27 +722,44 @@ public class FongoConnection implements Connection {
   public <T> QueryResult<T> query(MongoNamespace namespace, BsonDocument queryDocument, BsonDocument fields, int skip,
                                   int limit, int batchSize, boolean slaveOk, boolean tailableCursor, boolean awaitData,
                                   boolean noCursorTimeout, boolean partial, boolean oplogReplay, Decoder<T> resultDecoder) {
-    // we ignore the batchSize here since batching is not implemented.
-    return query(namespace, queryDocument, fields,
-        limit, skip, slaveOk, tailableCursor, awaitData,
-        noCursorTimeout, partial, oplogReplay, resultDecoder);
+    LOG.debug("query() namespace:{} queryDocument:{}, fields:{}, batchSize:{}", namespace, queryDocument, fields, batchSize);
+    final DBCollection collection = dbCollection(namespace);
+
+    final DBCursor cursor = collection
+        .find(dbObject(queryDocument), dbObject(fields))
+        .limit(Math.abs(limit))
+        .skip(skip);
+    // A negative limit or batchSize asks for a single batch, without batchSize everything is in the first batch.
+    final List<DBObject> objects = FongoServerCursors.nextBatch(cursor, Math.abs(batchSize));
+    final long cursorId = limit < 0 || batchSize < 0 ? 0L : fongo.getServerCursors().open(namespace.getFullName(), cursor, noCursorTimeout);
+
+    return new QueryResult(namespace, decode(objects, resultDecoder), cursorId, fongo.getServerAddress());
   }
 
   @Override
   public <T> QueryResult<T> getMore(MongoNamespace namespace, long cursorId, int numberToReturn, Decoder<T> resultDecoder) {
     LOG.debug("getMore() namespace:{} cursorId:{}", namespace, cursorId);
+    final Iterator<DBObject> results = fongo.getServerCursors().get(cursorId);
+    if (results == null) {
+      throw new MongoCursorNotFoundException(cursorId, fongo.getServerAddress());
+    }
+    final List<DBObject> objects = FongoServerCursors.nextBatch(results, numberToReturn);
     // 0 means Cursor exhausted.
-    return new QueryResult(namespace, Collections.emptyList(), 0, fongo.getServerAddress());
+    return new QueryResult(namespace, decode(objects, resultDecoder), fongo.getServerCursors().closeIfExhausted(cursorId, results), fongo.getServerAddress());
   }
 
   @Override
   public void killCursor(List<Long> cursors) {
     LOG.info("killCursor() cursors:{}", cursors);
+    for (Long cursorId : cursors) {
+      fongo.getServerCursors().kill(cursorId);
+    }
   }
 
   @Override
   public void killCursor(MongoNamespace namespace, List<Long> cursors) {
     LOG.debug("killCursor() namespace:{}, cursors:{}", namespace.getFullName(), cursors);
+    killCursor(cursors);
   }
 
   @Override
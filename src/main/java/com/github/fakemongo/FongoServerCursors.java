@@ -0,0 +1,167 @@
+package com.github.fakemongo;
+
+import com.mongodb.DBObject;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Open cursors of the "server" : the rest of the results of a query, read by batches with getMore.
+ * <p/>
+ * Like the server, a cursor is closed after 10 minutes without getMore (unless opened with noCursorTimeout), and when
+ * its collection is dropped. Beyond {@link #DEFAULT_MAX_CURSORS} open cursors, the least recently used are closed.
+ * <p/>
+ * Shared by all the connections of a fongo.
+ */
+class FongoServerCursors {
+  // cursorTimeoutMillis of the server.
+  static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  static final int DEFAULT_MAX_CURSORS = 10000;
+
+  private final long timeoutNanos;
+  private final int maxCursors;
+  private final AtomicLong lastCursorId = new AtomicLong();
+  // In the order of their last use : the idle cursors first.
+  private final Map<Long, ServerCursor> cursors = new LinkedHashMap<Long, ServerCursor>(16, 0.75F, true);
+
+  private static final class ServerCursor {
+    private final String ns;
+    private final Iterator<DBObject> results;
+    private final boolean noTimeout;
+    private long lastUse;
+
+    ServerCursor(String ns, Iterator<DBObject> results, boolean noTimeout, long lastUse) {
+      this.ns = ns;
+      this.results = results;
+      this.noTimeout = noTimeout;
+      this.lastUse = lastUse;
+    }
+  }
+
+  FongoServerCursors() {
+    this(DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_CURSORS);
+  }
+
+  FongoServerCursors(long timeoutMillis, int maxCursors) {
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    this.maxCursors = maxCursors;
+  }
+
+  /**
+   * Read the next batch of results.
+   *
+   * @param batchSize 0 to read all the remaining results.
+   */
+  static List<DBObject> nextBatch(Iterator<DBObject> results, int batchSize) {
+    final List<DBObject> batch = new ArrayList<DBObject>();
+    while ((batchSize <= 0 || batch.size() < batchSize) && results.hasNext()) {
+      batch.add(results.next());
+    }
+    return batch;
+  }
+
+  /**
+   * Keep the rest of the results for the next getMore.
+   *
+   * @param ns              full name of the collection.
+   * @param noCursorTimeout true to keep the cursor open until it is exhausted or killed, even idle.
+   * @return the id of the cursor, 0 if there is no more results.
+   */
+  long open(String ns, Iterator<DBObject> results, boolean noCursorTimeout) {
+    if (!results.hasNext()) {
+      return 0L;
+    }
+    final long cursorId = lastCursorId.incrementAndGet();
+    final long now = System.nanoTime();
+    synchronized (cursors) {
+      expire(now);
+      for (Iterator<Long> leastRecentlyUsed = cursors.keySet().iterator(); cursors.size() >= maxCursors; ) {
+        leastRecentlyUsed.next();
+        leastRecentlyUsed.remove();
+      }
+      cursors.put(cursorId, new ServerCursor(ns, results, noCursorTimeout, now));
+    }
+    return cursorId;
+  }
+
+  /**
+   * @return the rest of the results, null if the cursor doesn't exist (exhausted, killed or timed out).
+   */
+  Iterator<DBObject> get(long cursorId) {
+    final long now = System.nanoTime();
+    synchronized (cursors) {
+      expire(now);
+      final ServerCursor cursor = cursors.get(cursorId);
+      if (cursor == null) {
+        return null;
+      }
+      cursor.lastUse = now;
+      return cursor.results;
+    }
+  }
+
+  /**
+   * Close the cursor if there is no more results.
+   *
+   * @return the id of the cursor, 0 if there is no more results.
+   */
+  long closeIfExhausted(long cursorId, Iterator<DBObject> results) {
+    if (results.hasNext()) {
+      return cursorId;
+    }
+    synchronized (cursors) {
+      cursors.remove(cursorId);
+    }
+    return 0L;
+  }
+
+  /**
+   * @return true if the cursor was open.
+   */
+  boolean kill(long cursorId) {
+    synchronized (cursors) {
+      return cursors.remove(cursorId) != null;
+    }
+  }
+
+  /**
+   * Close the cursors of a collection.
+   *
+   * @param ns full name of the collection.
+   */
+  void killAll(String ns) {
+    synchronized (cursors) {
+      for (Iterator<ServerCursor> iterator = cursors.values().iterator(); iterator.hasNext(); ) {
+        if (iterator.next().ns.equals(ns)) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  int size() {
+    synchronized (cursors) {
+      return cursors.size();
+    }
+  }
+
+  /**
+   * Close the cursors idle for more than the timeout. Must be called with the lock of the cursors.
+   */
+  private void expire(long now) {
+    for (Iterator<ServerCursor> iterator = cursors.values().iterator(); iterator.hasNext(); ) {
+      final ServerCursor cursor = iterator.next();
+      if (now - cursor.lastUse < timeoutNanos) {
+        // The next cursors have been used later.
+        break;
+      }
+      if (!cursor.noTimeout) {
+        iterator.remove();
+      }
+    }
+  }
+}
@@ -33,6 +33,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -81,6 +82,15 @@ public class ExpressionParser {
   // TODO : http://docs.mongodb.org/manual/reference/operator/geoIntersects/
   private static final Logger LOG = LoggerFactory.getLogger(ExpressionParser.class);
   private static final Map<Class, Integer> CLASS_TO_WEIGHT;
+  // Types of the values of the equalities filtered by an EqualityFilter : equals() is their comparison.
+  private static final Set<Class> EQUALITY_CLASSES = new HashSet<Class>(Arrays.<Class>asList(
+      String.class, Integer.class, Long.class, Boolean.class, ObjectId.class, Date.class));
+  // Comparison not handled by compareScalars().
+  private static final int NOT_SCALARS = Integer.MIN_VALUE;
+  // Beyond, a long is not always a double.
+  private static final double MAX_EXACT_DOUBLE = 1L << 53;
+  // Number of shapes of queries kept compiled, the least recently used are forgotten.
+  static final int COMPILED_QUERIES_SIZE = 1000;
 
   static {
     // Sort order per http://docs.mongodb.org/manual/reference/operator/aggregation/sort/
@@ -110,7 +120,7 @@ public class ExpressionParser {
   }
 
   @SuppressWarnings("all")
-  List<FilterFactory> filterFactories = Arrays.<FilterFactory>asList(
+  List<BasicCommandFilterFactory> filterFactories = Arrays.<BasicCommandFilterFactory>asList(
       new ConditionalOperatorFilterFactory(GTE) {
         @Override
         boolean singleCompare(Object queryValue, Object storedValue) {
@@ -318,6 +328,29 @@ public class ExpressionParser {
       }
   );
 
+  // Filter factories by operator.
+  private final Map<String, FilterFactory> operators = new HashMap<String, FilterFactory>();
+
+  {
+    for (BasicCommandFilterFactory filterFactory : filterFactories) {
+      operators.put(filterFactory.command, filterFactory);
+    }
+  }
+
+  // Operators registered on the fongo of the collection.
+  private final OperatorRegistry registeredOperators;
+
+  public ExpressionParser() {
+    this(new OperatorRegistry());
+  }
+
+  /**
+   * @param registeredOperators operators added to the operators of fongo, see {@link OperatorRegistry}.
+   */
+  public ExpressionParser(OperatorRegistry registeredOperators) {
+    this.registeredOperators = registeredOperators;
+  }
+
   public ObjectComparator objectComparator(int sortDirection) {
     if (!(sortDirection == -1 || sortDirection == 1)) {
       throw new FongoException("The $sort element value must be either 1 or -1. Actual: " + sortDirection);
@@ -333,7 +366,50 @@ public class ExpressionParser {
     return isDbObject(o) && !(o instanceof List);
   }
 
+  // Compiled queries by shape, see buildFilter(DBObject).
+  private final Map<String, CompiledQuery> compiledQueries = Collections.synchronizedMap(new LinkedHashMap<String, CompiledQuery>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CompiledQuery> eldest) {
+      return size() > COMPILED_QUERIES_SIZE;
+    }
+  });
+
+  /**
+   * A compiled query, with the version of the registered operators it was compiled with.
+   */
+  private static final class CompiledQuery {
+    private final int operatorsVersion;
+    private final CompiledFilter filter;
+
+    CompiledQuery(int operatorsVersion, CompiledFilter filter) {
+      this.operatorsVersion = operatorsVersion;
+      this.filter = filter;
+    }
+  }
+
+  /**
+   * Build the filter of a query.
+   * The query is compiled once for its shape (see {@link #compileQuery(DBObject)}) : the filters of the next queries of
+   * this shape are built with their own values, without resolving again the paths and the operators.
+   */
   public Filter buildFilter(DBObject ref) {
+    if (ref != null && !ref.keySet().isEmpty()) {
+      final String shape = shape(ref);
+      if (shape != null) {
+        // Compiled again when an operator has been registered since.
+        final int operatorsVersion = registeredOperators.getVersion();
+        CompiledQuery compiledQuery = compiledQueries.get(shape);
+        if (compiledQuery == null || compiledQuery.operatorsVersion != operatorsVersion) {
+          compiledQuery = new CompiledQuery(operatorsVersion, compileQuery(ref));
+          compiledQueries.put(shape, compiledQuery);
+        }
+        return compiledQuery.filter.build(ref);
+      }
+    }
+    return buildFilterOf(ref);
+  }
+
+  private Filter buildFilterOf(DBObject ref) {
     AndFilter andFilter = new AndFilter();
     if (ref != null) {
       for (String key : ref.keySet()) {
@@ -345,6 +421,212 @@ public class ExpressionParser {
     return andFilter;
   }
 
+  /**
+   * A filter compiled for a shape of expression : the path of the key and the operators are resolved once, the filter
+   * of each expression of this shape is built with its own values.
+   */
+  private interface CompiledFilter {
+    Filter build(Object expression);
+  }
+
+  /**
+   * Compile a query : same filters as {@link #buildFilterOf(DBObject)} for the queries of the same shape.
+   * Must take the same decisions as {@link #buildExpressionFilter(List, Object)}.
+   */
+  private CompiledFilter compileQuery(DBObject ref) {
+    final List<String> keys = new ArrayList<String>(ref.keySet());
+    final List<CompiledFilter> compiledFilters = new ArrayList<CompiledFilter>(keys.size());
+    for (String key : keys) {
+      compiledFilters.add(compileExpression(Collections.unmodifiableList(Util.split(key)), ref.get(key)));
+    }
+    return new CompiledFilter() {
+      @Override
+      public Filter build(Object expression) {
+        final DBObject query = toDbObject(expression);
+        final AndFilter andFilter = new AndFilter();
+        for (int i = 0; i < keys.size(); i++) {
+          andFilter.addFilter(compiledFilters.get(i).build(query.get(keys.get(i))));
+        }
+        return andFilter;
+      }
+    };
+  }
+
+  private CompiledFilter compileExpression(final List<String> path, final Object expression) {
+    final String operator = path.get(0);
+    if (OR.equals(operator) || NOR.equals(operator) || AND.equals(operator)) {
+      final List<CompiledFilter> compiledQueries = new ArrayList<CompiledFilter>();
+      for (Object query : (Collection<?>) expression) {
+        compiledQueries.add(compileQuery(toDbObject(query)));
+      }
+      return new CompiledFilter() {
+        @Override
+        public Filter build(Object expression) {
+          final ConjunctionFilter filter = AND.equals(operator) ? new AndFilter() : new OrFilter();
+          int i = 0;
+          for (Object query : (Collection<?>) expression) {
+            filter.addFilter(compiledQueries.get(i++).build(query));
+          }
+          return NOR.equals(operator) ? new NotFilter(filter) : filter;
+        }
+      };
+    } else if (WHERE.equals(operator)) {
+      return new CompiledFilter() {
+        @Override
+        public Filter build(Object expression) {
+          return new WhereFilter((String) expression);
+        }
+      };
+    } else if (isDbObject(expression)) {
+      final DBObject ref = toDbObject(expression);
+      if (ref.containsField(NOT)) {
+        final CompiledFilter compiledNot = compileExpression(path, ref.get(NOT));
+        return new CompiledFilter() {
+          @Override
+          public Filter build(Object expression) {
+            return new NotFilter(compiledNot.build(toDbObject(expression).get(NOT)));
+          }
+        };
+      }
+      final List<FilterFactory> factories = filterFactories(ref);
+      if (!factories.isEmpty()) {
+        return new CompiledFilter() {
+          @Override
+          public Filter build(Object expression) {
+            final DBObject ref = toDbObject(expression);
+            final AndFilter andFilter = new AndFilter();
+            for (FilterFactory filterFactory : factories) {
+              andFilter.addFilter(filterFactory.createFilter(path, ref));
+            }
+            return andFilter;
+          }
+        };
+      }
+    } else if (expression instanceof Pattern) {
+      return new CompiledFilter() {
+        @Override
+        public Filter build(Object expression) {
+          return createPatternFilter(path, (Pattern) expression);
+        }
+      };
+    }
+    return new CompiledFilter() {
+      @Override
+      public Filter build(Object expression) {
+        if (expression != null && EQUALITY_CLASSES.contains(expression.getClass())) {
+          return new EqualityFilter(path, expression);
+        }
+        return simpleFilter(path, expression);
+      }
+    };
+  }
+
+  /**
+   * Equality with a String, Integer, Long, Boolean, ObjectId or Date : specialized for a stored value of the same type
+   * under embedded objects, without the list of the values of the path nor the comparison of any types.
+   * The other cases (lists, DBRef, other types) are filtered by the {@link #simpleFilter(List, Object)}.
+   */
+  private final class EqualityFilter implements Filter {
+    private final List<String> path;
+    private final Object expression;
+    private final Filter simpleFilter;
+
+    EqualityFilter(List<String> path, Object expression) {
+      this.path = path;
+      this.expression = expression;
+      this.simpleFilter = simpleFilter(path, expression);
+    }
+
+    @Override
+    public boolean apply(DBObject o) {
+      DBObject dbo = o;
+      final int last = path.size() - 1;
+      for (int i = 0; i < last; i++) {
+        final Object value = dbo.get(path.get(i));
+        if (value instanceof DBObject && !(value instanceof List)) {
+          dbo = (DBObject) value;
+        } else if (value instanceof List || value instanceof DBRef || value instanceof Map) {
+          return simpleFilter.apply(o);
+        } else {
+          // Not in the object.
+          return false;
+        }
+      }
+      final Object value = dbo.get(path.get(last));
+      if (value == null) {
+        return false;
+      }
+      if (value.getClass() == expression.getClass()) {
+        return expression.equals(value);
+      }
+      return simpleFilter.apply(o);
+    }
+  }
+
+  /**
+   * Shape of a query : its keys, the operators of its expressions and the kind of its values, without the values.
+   * Two queries of the same shape are compiled the same way (see {@link #compileExpression(List, Object)}).
+   *
+   * @return the shape, null if the query can't be compiled (the build of the filter fails).
+   */
+  private static String shape(DBObject ref) {
+    final StringBuilder shape = new StringBuilder();
+    return appendQueryShape(shape, ref) ? shape.toString() : null;
+  }
+
+  private static boolean appendQueryShape(StringBuilder shape, DBObject ref) {
+    shape.append('{');
+    for (String key : ref.keySet()) {
+      // The length avoids any ambiguity with the characters of the key.
+      shape.append(key.length()).append(':').append(key);
+      final int dot = key.indexOf('.');
+      if (!appendExpressionShape(shape, dot <= 0 ? key : key.substring(0, dot), ref.get(key))) {
+        return false;
+      }
+    }
+    shape.append('}');
+    return true;
+  }
+
+  private static boolean appendExpressionShape(StringBuilder shape, String operator, Object expression) {
+    if (OR.equals(operator) || NOR.equals(operator) || AND.equals(operator)) {
+      if (!(expression instanceof Collection) || ((Collection) expression).isEmpty()) {
+        return false;
+      }
+      shape.append('[');
+      for (Object query : (Collection) expression) {
+        if (NOR.equals(operator) ? !(query instanceof DBObject) : !isDbObject(query)) {
+          return false;
+        }
+        if (!appendQueryShape(shape, toDbObject(query))) {
+          return false;
+        }
+      }
+      shape.append(']');
+    } else if (WHERE.equals(operator)) {
+      if (!(expression instanceof String)) {
+        return false;
+      }
+      shape.append('w');
+    } else if (isDbObject(expression)) {
+      final DBObject ref = toDbObject(expression);
+      if (ref.containsField(NOT)) {
+        shape.append('!');
+        return appendExpressionShape(shape, operator, ref.get(NOT));
+      }
+      shape.append('(');
+      for (String key : ref.keySet()) {
+        shape.append(key.length()).append(':').append(key);
+      }
+      shape.append(')');
+    } else if (expression instanceof Pattern) {
+      shape.append('p');
+    } else {
+      shape.append('v');
+    }
+    return true;
+  }
+
   public ValueFilter buildValueFilter(DBObject ref) {
     if (ref.containsField("$in")) {
       // Special case: $in inside $pull may filter primitive values, not DBObjects
@@ -616,11 +898,9 @@ public class ExpressionParser {
 
         AndFilter andFilter = new AndFilter();
         int matchCount = 0;
-        for (FilterFactory filterFactory : filterFactories) {
-          if (filterFactory.matchesCommand(ref)) {
-            matchCount++;
-            andFilter.addFilter(filterFactory.createFilter(path, ref));
-          }
+        for (FilterFactory filterFactory : filterFactories(ref)) {
+          matchCount++;
+          andFilter.addFilter(filterFactory.createFilter(path, ref));
         }
         if (matchCount == 0) {
           return simpleFilter(path, expression);
@@ -655,6 +935,28 @@ public class ExpressionParser {
     return expression instanceof DBObject || expression instanceof Map;
   }
 
+  /**
+   * The $near filters write the distance into the stored objects : a query containing one is not a pure read.
+   *
+   * @return true if the query contains a $near or $nearSphere operator, at any depth.
+   */
+  public static boolean containsNearOperator(Object query) {
+    if (isDbObject(query)) {
+      for (Map.Entry<String, Object> entry : Util.entrySet(toDbObject(query))) {
+        if (NEAR.equals(entry.getKey()) || NEAR_SPHERE.equals(entry.getKey()) || containsNearOperator(entry.getValue())) {
+          return true;
+        }
+      }
+    } else if (query instanceof Collection) {
+      for (Object item : (Collection) query) {
+        if (containsNearOperator(item)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   public Filter simpleFilter(final List<String> path, final Object expression) {
     return new Filter() {
       @Override
@@ -691,6 +993,10 @@ public class ExpressionParser {
    * Can return null if {@code comparableFilter} is true and {@code queryValue} and {@code storedValue} can't be compared.
    */
   int compareObjects(Object queryValue, Object storedValue) {
+    final int compare = compareScalars(queryValue, storedValue);
+    if (compare != NOT_SCALARS) {
+      return compare;
+    }
     return compareObjects(queryValue, storedValue, false).intValue();
   }
 
@@ -707,6 +1013,12 @@ public class ExpressionParser {
   private Integer compareObjects(Object queryValue, Object storedValue, boolean comparableFilter) {
     LOG.debug("comparing {} and {}", queryValue, storedValue);
 
+    if (!comparableFilter || storedValue != null) {
+      final int compare = compareScalars(queryValue, storedValue);
+      if (compare != NOT_SCALARS) {
+        return compare;
+      }
+    }
     if (isDBObjectButNotDBList(queryValue) && isDBObjectButNotDBList(storedValue)) {
       return compareDBObjects(toDbObject(queryValue), toDbObject(storedValue));
     } else if (queryValue instanceof List && storedValue instanceof List) {
@@ -730,9 +1042,90 @@ public class ExpressionParser {
   }
 
   protected int compareTo(Object c1, Object c2) { // Object to handle MinKey/MaxKey
+    final int compare = compareScalars(c1, c2);
+    if (compare != NOT_SCALARS) {
+      return compare;
+    }
     return compareTo(c1, c2, false);
   }
 
+  /**
+   * Weight in the sort order of the most common values, without looking up {@link #CLASS_TO_WEIGHT}.
+   *
+   * @return the weight, or NOT_SCALARS if the value must be compared by {@link #compareTo(Object, Object, boolean)}.
+   */
+  private static int scalarWeight(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    final Class<?> clazz = value.getClass();
+    if (clazz == Integer.class || clazz == Long.class || clazz == Double.class || clazz == Short.class || clazz == Float.class) {
+      return 1;
+    }
+    if (clazz == String.class) {
+      return 2;
+    }
+    if (clazz == ObjectId.class) {
+      return 7;
+    }
+    if (clazz == Boolean.class) {
+      return 8;
+    }
+    if (clazz == Date.class) {
+      return 9;
+    }
+    return NOT_SCALARS;
+  }
+
+  /**
+   * Compare the most common values without boxing, as {@link #compareTo(Object, Object, boolean)} does.
+   *
+   * @return the comparison, or NOT_SCALARS if the values must be compared by {@link #compareTo(Object, Object, boolean)}.
+   */
+  @SuppressWarnings("unchecked")
+  static int compareScalars(Object c1, Object c2) {
+    final int weight1 = scalarWeight(c1);
+    if (weight1 == NOT_SCALARS) {
+      return NOT_SCALARS;
+    }
+    final int weight2 = scalarWeight(c2);
+    if (weight2 == NOT_SCALARS) {
+      return NOT_SCALARS;
+    }
+    if (weight1 != weight2) {
+      return weight1 < weight2 ? -1 : 1;
+    }
+    if (c1 == null) {
+      return 0;
+    }
+    if (c1.getClass() == c2.getClass()) {
+      return ((Comparable) c1).compareTo(c2);
+    }
+    if (weight1 == 1) {
+      return compareNumbers((Number) c1, (Number) c2);
+    }
+    return NOT_SCALARS;
+  }
+
+  // Compared as BigDecimal by compareTo(Object, Object, boolean) : the same result while the doubles are exact.
+  private static int compareNumbers(Number n1, Number n2) {
+    final boolean integral1 = !(n1 instanceof Double || n1 instanceof Float);
+    final boolean integral2 = !(n2 instanceof Double || n2 instanceof Float);
+    if (integral1 && integral2) {
+      final long l1 = n1.longValue();
+      final long l2 = n2.longValue();
+      return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+    }
+    if ((integral1 || n1 instanceof Double) && (integral2 || n2 instanceof Double)) {
+      final double d1 = n1.doubleValue();
+      final double d2 = n2.doubleValue();
+      if (Math.abs(d1) <= MAX_EXACT_DOUBLE && Math.abs(d2) <= MAX_EXACT_DOUBLE) {
+        return d1 < d2 ? -1 : (d1 == d2 ? 0 : 1);
+      }
+    }
+    return NOT_SCALARS;
+  }
+
   /**
    * @param comparableFilter if true, return null if {@code queryValue} and {@code storedValue} can't be compared..
    */
@@ -856,7 +1249,7 @@ public class ExpressionParser {
   /**
    * @param comparableFilter if true, return null if {@code queryValue} and {@code storedValue} can't be compared..
    */
-  private Integer compareLists(List queryList, List storedList, boolean comparableFilter) {
+  private int compareLists(List queryList, List storedList, boolean comparableFilter) {
     int sizeDiff = queryList.size() - storedList.size();
     if (sizeDiff != 0) {
       if (sizeDiff > 0 && queryList.get(storedList.size()) instanceof MinKey) {
@@ -879,10 +1272,7 @@ public class ExpressionParser {
       return sizeDiff;
     }
     for (int i = 0, length = queryList.size(); i < length; i++) {
-      Integer compareValue = compareObjects(queryList.get(i), storedList.get(i), comparableFilter);
-      if (compareValue == null) {
-        return -1; // Arbitrary
-      }
+      int compareValue = compareElements(queryList.get(i), storedList.get(i), comparableFilter);
       if (compareValue != 0) {
         return compareValue;
       }
@@ -890,7 +1280,7 @@ public class ExpressionParser {
     return 0;
   }
 
-  private Integer compareArrays(Object queryList, Object storedList, boolean comparableFilter) {
+  private int compareArrays(Object queryList, Object storedList, boolean comparableFilter) {
     int queryListSize = Array.getLength(queryList);
     int storedListSize = Array.getLength(storedList);
 
@@ -917,10 +1307,7 @@ public class ExpressionParser {
     }
 
     for (int i = 0, length = queryListSize; i < length; i++) {
-      Integer compareValue = compareObjects(Array.get(queryList, i), Array.get(storedList, i), comparableFilter);
-      if (compareValue == null) {
-        return -1; // Arbitrary
-      }
+      int compareValue = compareElements(Array.get(queryList, i), Array.get(storedList, i), comparableFilter);
       if (compareValue != 0) {
         return compareValue;
       }
@@ -928,6 +1315,21 @@ public class ExpressionParser {
     return 0;
   }
 
+  private int compareElements(Object queryValue, Object storedValue, boolean comparableFilter) {
+    // A null can't be compared in a filter.
+    if (!comparableFilter || storedValue != null) {
+      final int compare = compareScalars(queryValue, storedValue);
+      if (compare != NOT_SCALARS) {
+        return compare;
+      }
+    }
+    Integer compareValue = compareObjects(queryValue, storedValue, comparableFilter);
+    if (compareValue == null) {
+      return -1; // Arbitrary
+    }
+    return compareValue;
+  }
+
   private boolean isEmptyOrContainsOnlyNull(List list) {
     for (Object obj : list) {
       if (obj != null) {
@@ -1032,7 +1434,10 @@ public class ExpressionParser {
         final Geometry objectGeometry = GeoUtil.toGeometry(toDbObject(Util.extractField(o, path)));
 
         double distance = GeoUtil.distanceInRadians(geometry, objectGeometry, sphere);
-        o.put(FongoDBCollection.FONGO_SPECIAL_ORDER_BY, distance);
+        // Only the geo index own copies keep the distance for the sort : stored documents are never modified.
+        if (o instanceof GeoUtil.GeoDBObject) {
+          o.put(FongoDBCollection.FONGO_SPECIAL_ORDER_BY, distance);
+        }
         return maxDistance == null || distance < maxDistance.doubleValue();
       }
     };
@@ -1087,10 +1492,37 @@ public class ExpressionParser {
     return new ObjectComparator(asc);
   }
 
-  interface FilterFactory {
-    public boolean matchesCommand(DBObject refExpression);
+  /**
+   * Filter of an operator of the queries : { field : { $operator : value } }.
+   * See {@link OperatorRegistry} to add an operator.
+   */
+  public interface FilterFactory {
+    /**
+     * @param path          path of the field.
+     * @param refExpression expression of the field, containing the operator and its value.
+     * @return the filter of the objects.
+     */
+    Filter createFilter(List<String> path, DBObject refExpression);
+  }
 
-    public Filter createFilter(List<String> path, DBObject refExpression);
+  /**
+   * @return the filter factories of the operators of the expression, empty if there is no operator.
+   */
+  private List<FilterFactory> filterFactories(DBObject refExpression) {
+    List<FilterFactory> factories = Collections.emptyList();
+    for (String key : refExpression.keySet()) {
+      FilterFactory filterFactory = registeredOperators.get(key);
+      if (filterFactory == null) {
+        filterFactory = operators.get(key);
+      }
+      if (filterFactory != null) {
+        if (factories.isEmpty()) {
+          factories = new ArrayList<FilterFactory>(2);
+        }
+        factories.add(filterFactory);
+      }
+    }
+    return factories;
   }
 
   private static class Null {
@@ -1216,11 +1648,6 @@ public class ExpressionParser {
     public BasicCommandFilterFactory(final String command) {
       this.command = command;
     }
-
-    @Override
-    public boolean matchesCommand(DBObject refExpression) {
-      return refExpression.containsField(command);
-    }
   }
 
   abstract class BasicFilterFactory extends BasicCommandFilterFactory {
@@ -1228,11 +1655,6 @@ public class ExpressionParser {
       super(command);
     }
 
-    @Override
-    public boolean matchesCommand(DBObject refExpression) {
-      return refExpression.containsField(command);
-    }
-
     @Override
     public Filter createFilter(final List<String> path, final DBObject refExpression) {
       return new Filter() {
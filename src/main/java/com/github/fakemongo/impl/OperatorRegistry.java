@@ -0,0 +1,48 @@
+package com.github.fakemongo.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Operators of the queries registered on a fongo, for all its collections (see {@link com.github.fakemongo.Fongo#getOperatorRegistry()}).
+ * A registered operator replaces the operator of fongo with the same name.
+ * <p/>
+ * Thread Safe.
+ */
+public class OperatorRegistry {
+
+  private final Map<String, ExpressionParser.FilterFactory> operators = new ConcurrentHashMap<String, ExpressionParser.FilterFactory>();
+  // Incremented when an operator is registered or removed : the queries compiled before must be compiled again.
+  private final AtomicInteger version = new AtomicInteger();
+
+  /**
+   * Register an operator of the queries, or replace an operator of fongo.
+   *
+   * @param operator      the operator, "$myOperator".
+   * @param filterFactory the filter of the operator.
+   */
+  public void register(String operator, ExpressionParser.FilterFactory filterFactory) {
+    operators.put(operator, filterFactory);
+    version.incrementAndGet();
+  }
+
+  /**
+   * Remove an operator registered by {@link #register(String, ExpressionParser.FilterFactory)}.
+   */
+  public void unregister(String operator) {
+    operators.remove(operator);
+    version.incrementAndGet();
+  }
+
+  /**
+   * @return the filter factory of the operator, null if it is not registered.
+   */
+  ExpressionParser.FilterFactory get(String operator) {
+    return operators.isEmpty() ? null : operators.get(operator);
+  }
+
+  int getVersion() {
+    return version.get();
+  }
+}
@@ -22,7 +22,18 @@ import org.slf4j.LoggerFactory;
 public class UpdateEngine {
   final static Logger LOG = LoggerFactory.getLogger(UpdateEngine.class);
 
-  private final ExpressionParser expressionParser = new ExpressionParser();
+  private final ExpressionParser expressionParser;
+
+  public UpdateEngine() {
+    this(new ExpressionParser());
+  }
+
+  /**
+   * @param expressionParser parser of the queries of the collection.
+   */
+  public UpdateEngine(ExpressionParser expressionParser) {
+    this.expressionParser = expressionParser;
+  }
 
 
   void keyCheck(String key, Set<String> seenKeys) {
@@ -1,5 +1,6 @@
 package com.github.fakemongo.impl.index;
 
+import com.github.fakemongo.impl.ExpressionParser;
 import com.github.fakemongo.impl.Filter;
 import com.github.fakemongo.impl.Util;
 import com.github.fakemongo.impl.geo.GeoUtil;
@@ -26,8 +27,8 @@ import org.slf4j.LoggerFactory;
 public class GeoIndex extends IndexAbstract<GeoUtil.GeoDBObject> {
   private static final Logger LOG = LoggerFactory.getLogger(GeoIndex.class);
 
-  GeoIndex(String name, DBObject keys, boolean unique, String geoIndex, boolean sparse) {
-    super(name, keys, unique, new LinkedHashMap<GeoUtil.GeoDBObject, IndexedList<GeoUtil.GeoDBObject>>(), geoIndex, sparse);
+  GeoIndex(String name, DBObject keys, boolean unique, String geoIndex, boolean sparse, ExpressionParser expressionParser) {
+    super(name, keys, unique, new LinkedHashMap<GeoUtil.GeoDBObject, IndexedList<GeoUtil.GeoDBObject>>(), geoIndex, sparse, expressionParser);
     //TreeMap<GeoUtil.GeoDBObject, List<GeoUtil.GeoDBObject>>(new GeoUtil.GeoComparator(geoIndex)), geoIndex);
   }
 
@@ -45,7 +46,7 @@ public class GeoIndex extends IndexAbstract<GeoUtil.GeoDBObject> {
   }
 
   public List<DBObject> geoNear(DBObject query, Geometry geometry, int limit, boolean spherical) {
-    lookupCount++;
+    lookupCount.incrementAndGet();
 
     LOG.info("geoNear() query:{}, geometry:{}, limit:{}, spherical:{} (mapValues size:{})", query, geometry, limit, spherical, mapValues.size());
     // Filter values
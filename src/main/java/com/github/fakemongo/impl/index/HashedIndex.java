@@ -1,20 +1,52 @@
 package com.github.fakemongo.impl.index;
 
+import com.github.fakemongo.impl.ExpressionParser;
+import com.github.fakemongo.impl.Filter;
+import com.github.fakemongo.impl.Util;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.MongoException;
+import com.mongodb.QueryOperators;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.Set;
+import org.bson.types.ObjectId;
 
 /**
- * An index for the MongoDB.
+ * An hashed index for the MongoDB : the key of an object is the 64 bits hash of the value of the hashed field,
+ * like <code>{field : hash}</code>.
+ * <p/>
+ * Only used for the equalities and the $in of the hashed field. Equal values (1, 1L, 1.0) have the same hash ;
+ * the other values (embedded objects, binaries...) are hashed like the keys of the other indexes (see {@link IndexKey}).
+ * The objects under a key are filtered by the query.
  */
 public class HashedIndex extends IndexAbstract<DBObject> {
-  private static final Logger LOG = LoggerFactory.getLogger(HashedIndex.class);
+  // Seeds of the types : 1 and "1" don't collide.
+  private static final long NUMBER = 0x9E3779B97F4A7C15L;
+  private static final long STRING = 0xC2B2AE3D27D4EB4FL;
+  private static final long OBJECT_ID = 0x165667B19E3779F9L;
+  private static final long BOOLEAN = 0xD6E8FEB86659FD93L;
+  private static final long DATE = 0xFF51AFD7ED558CCDL;
+  private static final long OTHER = 0xC4CEB9FE1A85EC53L;
 
-  HashedIndex(String name, DBObject keys, boolean unique, String hashed, boolean sparse) {
-    super(name, keys, unique, new LinkedHashMap<DBObject, IndexedList<DBObject>>(), hashed, sparse);
+  private final String hashed;
+  private final List<String> path;
+
+  HashedIndex(String name, DBObject keys, boolean unique, String hashed, boolean sparse, ExpressionParser expressionParser) {
+    super(name, keys, unique, new LinkedHashMap<DBObject, IndexedList<DBObject>>(), null, sparse, expressionParser);
+    this.hashed = hashed;
+    this.path = Util.split(hashed);
+  }
+
+  @Override
+  public boolean isHashedIndex() {
+    return true;
   }
 
   /**
@@ -25,7 +57,7 @@ public class HashedIndex extends IndexAbstract<DBObject> {
    */
   @Override
   protected DBObject getKeyFor(DBObject object) {
-    return object;
+    return keyFor(hash(valueOf(object)));
   }
 
   @Override
@@ -35,9 +67,209 @@ public class HashedIndex extends IndexAbstract<DBObject> {
 
   @Override
   public List<List<Object>> addOrUpdate(DBObject object, DBObject oldObject) {
-    if (object.get(this.geoIndex) instanceof List) {
+    if (object.get(this.hashed) instanceof List) {
       throw new MongoException(16766, "Error: hashed indexes do not currently support array values");
     }
     return super.addOrUpdate(object, oldObject);
   }
-}
\ No newline at end of file
+
+  /**
+   * Only the equalities and the $in of the hashed field.
+   */
+  @Override
+  public boolean canHandle(DBObject queryFields) {
+    return super.canHandle(queryFields) && pointValues(queryFields) != null;
+  }
+
+  @Override
+  public boolean canIndex(DBObject object) {
+    return super.canHandle(object);
+  }
+
+  @Override
+  public Collection<DBObject> retrieveObjects(DBObject query) {
+    return retrieve(query, expressionParser.buildFilter(query));
+  }
+
+  @Override
+  public Collection<DBObject> retrieveCandidates(DBObject query) {
+    return retrieve(query, ExpressionParser.AllFilter);
+  }
+
+  /**
+   * The objects under the keys of the equality or the $in.
+   */
+  @Override
+  public long estimate(DBObject query, long max) {
+    final Set<DBObject> keys = pointKeys(query);
+    if (keys == null) {
+      return size();
+    }
+    long count = 0;
+    for (Iterator<DBObject> iterator = keys.iterator(); iterator.hasNext() && count <= max; ) {
+      final IndexedList<DBObject> objects = mapValues.get(iterator.next());
+      count += objects == null ? 0 : objects.size();
+    }
+    return count;
+  }
+
+  private List<DBObject> retrieve(DBObject query, Filter filter) {
+    lookupCount.incrementAndGet();
+    final Set<DBObject> keys = pointKeys(query);
+    if (keys == null) {
+      final List<DBObject> result = new ArrayList<DBObject>();
+      for (DBObject object : values()) {
+        if (filter.apply(object)) {
+          result.add(object);
+        }
+      }
+      docsExamined.addAndGet(size());
+      return result;
+    }
+
+    final List<DBObject> result = new ArrayList<DBObject>();
+    long docCount = 0;
+    for (DBObject key : keys) {
+      final IndexedList<DBObject> objects = mapValues.get(key);
+      if (objects != null) {
+        for (DBObject object : objects.getElements()) {
+          docCount++;
+          // Some values share their hash : the caller filters the candidates.
+          if (filter.apply(object)) {
+            result.add(object);
+          }
+        }
+      }
+    }
+    keysExamined.addAndGet(keys.size());
+    docsExamined.addAndGet(docCount);
+    return result;
+  }
+
+  /**
+   * @return the keys of the values of the equality or the $in of the query, null otherwise.
+   */
+  private Set<DBObject> pointKeys(DBObject query) {
+    final Collection values = pointValues(query);
+    if (values == null) {
+      return null;
+    }
+    // Equal values of the $in share their key.
+    final Set<DBObject> keys = new LinkedHashSet<DBObject>();
+    for (Object value : values) {
+      keys.add(keyFor(hash(value)));
+    }
+    return keys;
+  }
+
+  /**
+   * @return the values of the hashed field in the query : an equality or a $in, null otherwise.
+   */
+  private Collection pointValues(DBObject query) {
+    final Object value = query.get(hashed);
+    if (isEquality(value)) {
+      return Collections.singletonList(value);
+    }
+    if (ExpressionParser.isDbObject(value) && !(value instanceof List)) {
+      final DBObject condition = ExpressionParser.toDbObject(value);
+      final Object in = condition.get(QueryOperators.IN);
+      if (condition.keySet().size() == 1 && in instanceof Collection) {
+        for (Object inValue : (Collection) in) {
+          if (!isEquality(inValue)) {
+            return null;
+          }
+        }
+        return (Collection) in;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return true for a value or an embedded object, false for the operators ({$gt : 1}).
+   */
+  private static boolean isEquality(Object value) {
+    if (isBound(value)) {
+      return true;
+    }
+    if (!(value instanceof DBObject) || value instanceof List) {
+      return false;
+    }
+    final Set<String> fields = ((DBObject) value).keySet();
+    return fields.isEmpty() || !fields.iterator().next().startsWith("$");
+  }
+
+  private Object valueOf(DBObject object) {
+    if (object.containsField(hashed)) {
+      return object.get(hashed);
+    }
+    Object value = object;
+    for (String field : path) {
+      if (!(value instanceof DBObject) || value instanceof List) {
+        return null;
+      }
+      value = ((DBObject) value).get(field);
+    }
+    return value;
+  }
+
+  private DBObject keyFor(long hash) {
+    Object key = hash;
+    for (int i = path.size() - 1; i > 0; i--) {
+      key = new BasicDBObject(path.get(i), key);
+    }
+    final IndexKey indexKey = new IndexKey();
+    indexKey.put(path.get(0), key);
+    return indexKey;
+  }
+
+  /**
+   * 64 bits hash of a value, the same for the values equal in a query.
+   */
+  static long hash(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof Number) {
+      // 0.1F is equal to 0.1D : compared as decimals.
+      double number = value instanceof Float ? Double.parseDouble(value.toString()) : ((Number) value).doubleValue();
+      if (number == 0) {
+        number = 0; // -0.0
+      }
+      return mix(NUMBER ^ Double.doubleToLongBits(number));
+    }
+    if (value instanceof String) {
+      final String string = (String) value;
+      long hash = STRING;
+      for (int i = 0, length = string.length(); i < length; i++) {
+        hash = (hash ^ string.charAt(i)) * 0x100000001B3L;
+      }
+      return mix(hash);
+    }
+    if (value instanceof ObjectId) {
+      long hash = OBJECT_ID;
+      for (byte b : ((ObjectId) value).toByteArray()) {
+        hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+      }
+      return mix(hash);
+    }
+    if (value instanceof Boolean) {
+      return mix(BOOLEAN ^ ((Boolean) value ? 1 : 0));
+    }
+    if (value instanceof Date) {
+      return mix(DATE ^ ((Date) value).getTime());
+    }
+    // Embedded objects, binaries, regex... : the hash of the key of the index, as equal as the values.
+    return mix(OTHER ^ IndexKey.hash(value));
+  }
+
+  // Finalizer of MurmurHash3.
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
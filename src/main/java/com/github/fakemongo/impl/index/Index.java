@@ -6,10 +6,16 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.FongoDBCollection;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * An index for the MongoDB.
@@ -17,7 +23,11 @@ import java.util.TreeMap;
 public class Index extends IndexAbstract<DBObject> {
 
   Index(String name, DBObject keys, boolean unique, boolean sparse) {
-    super(name, keys, unique, createMap(keys, unique), null, sparse);
+    this(name, keys, unique, sparse, new ExpressionParser());
+  }
+
+  Index(String name, DBObject keys, boolean unique, boolean sparse, ExpressionParser expressionParser) {
+    super(name, keys, unique, createMap(keys, unique), null, sparse, expressionParser);
   }
 
   private static Map<DBObject, IndexedList<DBObject>> createMap(DBObject keys, boolean unique) {
@@ -25,8 +35,93 @@ public class Index extends IndexAbstract<DBObject> {
     if (keys.containsField(FongoDBCollection.ID_FIELD_NAME) && keys.toMap().size() == 1) {
       return new LinkedHashMap<DBObject, IndexedList<DBObject>>();
     } else {
-      //noinspection unchecked
-      return new TreeMap<DBObject, IndexedList<DBObject>>(new ExpressionParser().buildObjectComparator(isAsc(keys)));
+      return new TreeMap<DBObject, IndexedList<DBObject>>(new KeyComparator(isAsc(keys)));
+    }
+  }
+
+  /**
+   * Order of the keys : the encoded keys are compared as bytes, the others by the {@link ExpressionParser.ObjectComparator}.
+   */
+  private static final class KeyComparator implements Comparator<DBObject> {
+    private final ExpressionParser.ObjectComparator objectComparator;
+    private final int asc;
+
+    KeyComparator(boolean asc) {
+      this.objectComparator = new ExpressionParser().buildObjectComparator(asc);
+      this.asc = asc ? 1 : -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compare(DBObject key1, DBObject key2) {
+      if (key1 instanceof IndexKey && key2 instanceof IndexKey) {
+        final byte[] encoded1 = ((IndexKey) key1).encoded();
+        if (encoded1 != null) {
+          final byte[] encoded2 = ((IndexKey) key2).encoded();
+          if (encoded2 != null) {
+            return asc * IndexKeyEncoding.compare(encoded1, encoded2);
+          }
+        }
+      }
+      return objectComparator.compare(key1, key2);
+    }
+  }
+
+  /**
+   * Multikey : like MongoDB, a key by element when the indexed field is an array (or in an array of objects).
+   * Compound indexes keep one key by object.
+   */
+  @Override
+  Collection<DBObject> expandKey(DBObject object, DBObject key) {
+    if (getFields().size() != 1 || !containsList(key)) {
+      return Collections.singletonList(key);
+    }
+    final List<String> path = Util.split(getFields().iterator().next());
+    for (String field : path) {
+      if (Util.isPositiveInt(field)) {
+        // "a.0" : position in the array.
+        return Collections.singletonList(key);
+      }
+    }
+    final List<Object> elements = new ArrayList<Object>();
+    addElements(object, path, 0, elements);
+    if (elements.isEmpty()) {
+      return Collections.singletonList(key);
+    }
+    // Same element twice in an array : only one key.
+    final Collection<DBObject> keys = mapValues instanceof SortedMap
+        ? new TreeSet<DBObject>(((SortedMap<DBObject, IndexedList<DBObject>>) mapValues).comparator())
+        : new LinkedHashSet<DBObject>();
+    for (Object element : elements) {
+      Object value = element;
+      for (int i = path.size() - 1; i > 0; i--) {
+        value = new BasicDBObject(path.get(i), value);
+      }
+      final IndexKey elementKey = new IndexKey();
+      elementKey.put(path.get(0), value);
+      keys.add(elementKey);
+    }
+    return keys;
+  }
+
+  /**
+   * Values of the path in the object, the arrays are flattened.
+   */
+  private static void addElements(Object value, List<String> path, int index, List<Object> elements) {
+    if (index == path.size()) {
+      if (value instanceof List && !((List) value).isEmpty()) {
+        elements.addAll((List) value);
+      } else {
+        elements.add(value);
+      }
+    } else if (value instanceof List) {
+      for (Object element : (List) value) {
+        if (element instanceof DBObject && !(element instanceof List)) {
+          addElements(element, path, index, elements);
+        }
+      }
+    } else if (value instanceof DBObject && ((DBObject) value).containsField(path.get(index))) {
+      addElements(((DBObject) value).get(path.get(index)), path, index + 1, elements);
     }
   }
 
@@ -6,22 +6,39 @@ import com.github.fakemongo.impl.Util;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
-import com.mongodb.FongoDBCollection;
 
 import static com.mongodb.FongoDBCollection.ID_FIELD_NAME;
 
 import com.mongodb.MongoException;
 import com.mongodb.QueryOperators;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bson.types.Binary;
+import org.bson.types.ObjectId;
 
 /**
  * An index for the MongoDB.
@@ -29,25 +46,48 @@ import org.bson.types.Binary;
  * NOT Thread Safe. The ThreadSafety must be done by the caller.
  */
 public abstract class IndexAbstract<T extends DBObject> {
+  // Minimum number of objects by thread extracting the keys of a new index.
+  private static final int BUILD_CHUNK_SIZE = 50000;
+
   final String geoIndex;
-  final ExpressionParser expressionParser = new ExpressionParser();
+  final ExpressionParser expressionParser;
   // Contains all dbObject than field value can have
   final Map<T, IndexedList<T>> mapValues;
   private final String name;
   private final DBObject keys;
+  // Null if the key is the projection of the keys (see IndexKeyExtractor#compile).
+  private final IndexKeyExtractor keyExtractor;
   private final Set<String> fields;
   private final boolean unique;
   private final boolean sparse;
-  int lookupCount = 0;
+  // Order of the map of an ordered index.
+  private final boolean asc;
+  // Number of documents in the index, maintained on write so size() doesn't walk the buckets.
+  private int size = 0;
+  // Incremented by concurrent finds.
+  final AtomicLong lookupCount = new AtomicLong();
+  final AtomicLong keysExamined = new AtomicLong();
+  final AtomicLong docsExamined = new AtomicLong();
+  // Objects read by addAll(), read by the thread reporting the progress of a build.
+  private final AtomicLong buildProgress = new AtomicLong();
+  // True once an array has been indexed : a key can be only one element of the array of the object.
+  private boolean multiKey = false;
+  // Number of keys without all the fields, in an index of more than two fields : {a : 1, c : 1} is not before
+  // {a : 1, b : 1, c : 1} as if b was null.
+  private int partialKeys = 0;
 
-  IndexAbstract(String name, DBObject keys, boolean unique, Map<T, IndexedList<T>> mapValues, String geoIndex, boolean sparse) throws MongoException {
+  IndexAbstract(String name, DBObject keys, boolean unique, Map<T, IndexedList<T>> mapValues, String geoIndex, boolean sparse,
+                ExpressionParser expressionParser) throws MongoException {
     this.name = name;
+    this.expressionParser = expressionParser;
     this.fields = Collections.unmodifiableSet(keys.keySet()); // Setup BEFORE keys.
     this.keys = prepareKeys(keys);
+    this.keyExtractor = IndexKeyExtractor.compile(this.keys);
     this.unique = unique;
     this.mapValues = mapValues;
     this.geoIndex = geoIndex;
     this.sparse = sparse;
+    this.asc = isAsc(keys);
 
     for (Object value : keys.toMap().values()) {
       if (!(value instanceof String) && !(value instanceof Number)) {
@@ -106,6 +146,20 @@ public abstract class IndexAbstract<T extends DBObject> {
     return geoIndex != null;
   }
 
+  /**
+   * @return true if the keys are the hashes of the values (see {@link HashedIndex}).
+   */
+  public boolean isHashedIndex() {
+    return false;
+  }
+
+  /**
+   * @return true if an array has been indexed : an object can be under many keys.
+   */
+  public boolean isMultiKey() {
+    return multiKey;
+  }
+
   public DBObject getKeys() {
     return keys;
   }
@@ -129,30 +183,53 @@ public abstract class IndexAbstract<T extends DBObject> {
     if (sparse && isPartialKey(key)) {
       return Collections.emptyList();
     }
+    if (!multiKey && containsList(key)) {
+      multiKey = true;
+    }
+    if (fields.size() > 2 && isPartialKey(key)) {
+      partialKeys++;
+    }
+    final Collection<T> keys = expandKey(object, key);
 
-    if (unique) {
+    if (isUnique(key)) {
       // Unique must check if he's really unique.
-      if (mapValues.containsKey(key)) {
-        return extractFields(object, key.keySet());
+      for (T k : keys) {
+        if (mapValues.containsKey(k)) {
+          return extractFields(object, key.keySet());
+        }
       }
       T toAdd = embedded(object);
-      mapValues.put(key, new IndexedList<T>(Collections.singletonList(toAdd))); // DO NOT CLONE !
-    } else {
-      // Extract previous values
-      IndexedList<T> values = mapValues.get(key);
-      if (values == null) {
-        // Create if absent.
-        values = new IndexedList<T>(new ArrayList<T>());
-        mapValues.put(key, values);
+      for (T k : keys) {
+        mapValues.put(k, new IndexedList<T>(Collections.singletonList(toAdd))); // DO NOT CLONE !
       }
-
-      // Add to values.
+      size++;
+    } else {
       T toAdd = embedded(object); // DO NOT CLONE ! Indexes must share the same object.
-      values.add(toAdd);
+      for (T k : keys) {
+        // Extract previous values
+        IndexedList<T> values = mapValues.get(k);
+        if (values == null) {
+          // Create if absent.
+          values = new IndexedList<T>(new ArrayList<T>());
+          mapValues.put(k, values);
+        }
+
+        // Add to values.
+        values.add(toAdd);
+      }
+      size++;
     }
     return Collections.emptyList();
   }
 
+  /**
+   * A compound index also contains the objects with only its first field (see {@link #canIndex(DBObject)}) :
+   * they are not checked for uniqueness.
+   */
+  private boolean isUnique(T key) {
+    return unique && (fields.size() == 1 || sparse || !isPartialKey(key));
+  }
+
   private boolean isPartialKey(T key) {
     final Set<String> keyProjections = generateProjections(key, "");
     return !getFields().equals(keyProjections);
@@ -191,31 +268,143 @@ public abstract class IndexAbstract<T extends DBObject> {
    */
   public List<List<Object>> checkAddOrUpdate(T object, T oldObject) {
     if (unique) {
-      DBObject key = getKeyFor(object);
-      IndexedList<T> objects = mapValues.get(key);
-      if (objects != null && !objects.contains(oldObject)) {
-        List<List<Object>> fieldsForIndex = extractFields(object, getFields());
-        return fieldsForIndex;
+      final T objectKey = getKeyFor(object);
+      if (isUnique(objectKey)) {
+        for (T key : expandKey(object, objectKey)) {
+          IndexedList<T> objects = mapValues.get(key);
+          if (objects != null && !objects.contains(oldObject)) {
+            List<List<Object>> fieldsForIndex = extractFields(object, getFields());
+            return fieldsForIndex;
+          }
+        }
       }
     }
     return Collections.emptyList();
   }
 
+  /**
+   * @return an empty set of keys, with the equality of the keys of the index.
+   */
+  public Set<T> newKeySet() {
+    if (mapValues instanceof TreeMap) {
+      return new TreeSet<T>(((TreeMap<T, IndexedList<T>>) mapValues).comparator());
+    }
+    return new HashSet<T>();
+  }
+
+  /**
+   * Check, in case of unique index, if a new object of a batch can be added : like
+   * {@link #checkAddOrUpdate(DBObject, DBObject)}, and its keys must not be the keys of the previous objects of the batch.
+   *
+   * @param batchKeys keys of the previous objects of the batch (see {@link #addKeys(DBObject, Set)}).
+   * @return keys in error if uniqueness is not respected, empty collection otherwise.
+   */
+  public List<List<Object>> checkAdd(T object, Set<T> batchKeys) {
+    if (unique) {
+      final T objectKey = getKeyFor(object);
+      if (isUnique(objectKey)) {
+        for (T key : expandKey(object, objectKey)) {
+          if (mapValues.containsKey(key) || batchKeys.contains(key)) {
+            return extractFields(object, getFields());
+          }
+        }
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Add the keys of a new object of a batch, for {@link #checkAdd(DBObject, Set)}.
+   */
+  public void addKeys(T object, Set<T> batchKeys) {
+    if (canIndex(object)) {
+      final T key = getKeyFor(object);
+      if (!sparse || !isPartialKey(key)) {
+        batchKeys.addAll(expandKey(object, key));
+      }
+    }
+  }
+
+  /**
+   * Add new objects, already checked for uniqueness (see {@link #checkAdd(DBObject, Set)}), like
+   * {@link #addOrUpdate(DBObject, DBObject)} for each one : the keys of an ordered index are sorted, then the map is
+   * read once by key of the batch.
+   *
+   * @param objects new objects in the index (see {@link #canIndex(DBObject)}).
+   */
+  public void addBatch(List<T> objects) {
+    if (!(mapValues instanceof TreeMap) || objects.size() == 1) {
+      for (T object : objects) {
+        addOrUpdate(object, null);
+      }
+      return;
+    }
+
+    final List<BuildEntry<T>> entries = new ArrayList<BuildEntry<T>>(objects.size());
+    for (int i = 0; i < objects.size(); i++) {
+      final T object = objects.get(i);
+      final T key = getKeyFor(object);
+      if (sparse && isPartialKey(key)) {
+        continue;
+      }
+      if (!multiKey && containsList(key)) {
+        multiKey = true;
+      }
+      if (fields.size() > 2 && isPartialKey(key)) {
+        partialKeys++;
+      }
+      final Collection<T> keys = expandKey(object, key);
+      final T toAdd = embedded(object); // DO NOT CLONE ! Indexes must share the same object.
+      for (T k : keys) {
+        entries.add(new BuildEntry<T>(k, key, toAdd, i, false));
+      }
+      size++;
+    }
+
+    final Comparator<? super T> comparator = ((TreeMap<T, IndexedList<T>>) mapValues).comparator();
+    sortEntries(entries, comparator);
+    for (int start = 0; start < entries.size(); ) {
+      final T key = entries.get(start).key;
+      IndexedList<T> values = mapValues.get(key);
+      if (values == null) {
+        values = new IndexedList<T>(new ArrayList<T>());
+        mapValues.put(key, values);
+      }
+      int end = start;
+      for (; end < entries.size() && comparator.compare(key, entries.get(end).key) == 0; end++) {
+        values.add(entries.get(end).object);
+      }
+      start = end;
+    }
+  }
+
   /**
    * Remove an object from the index.
    *
    * @param object to remove from the index.
    */
   public void remove(T object) {
-    T key = getKeyFor(object);
-    // Extract previous values
-    IndexedList<T> values = mapValues.get(key);
-    if (values != null) {
-      // Last entry ? or uniqueness ?
-      if (values.size() == 1) {
-        mapValues.remove(key);
-      } else {
-        values.remove(object);
+    final T objectKey = getKeyFor(object);
+    boolean removed = false;
+    for (T key : expandKey(object, objectKey)) {
+      // Extract previous values
+      IndexedList<T> values = mapValues.get(key);
+      if (values != null) {
+        // Last entry ? or uniqueness ?
+        if (values.size() == 1) {
+          mapValues.remove(key);
+          removed = true;
+        } else {
+          final int previousSize = values.size();
+          values.remove(object);
+          removed |= previousSize != values.size();
+        }
+      }
+    }
+    if (removed) {
+      size--;
+      if (fields.size() > 2 && isPartialKey(objectKey)) {
+        partialKeys--;
       }
     }
   }
@@ -227,8 +416,14 @@ public abstract class IndexAbstract<T extends DBObject> {
    * @return keys in error if uniqueness is not respected, empty collection otherwise.
    */
   public List<List<Object>> addAll(Iterable<T> objects) {
+    if (objects instanceof List && size == 0 && mapValues instanceof TreeMap && mapValues.isEmpty()
+        && ((TreeMap) mapValues).comparator() != null) {
+      final List<T> list = (List<T>) objects;
+      return build(list, Math.min(Runtime.getRuntime().availableProcessors(), list.size() / BUILD_CHUNK_SIZE));
+    }
     for (T object : objects) {
-      if (canHandle(object)) {
+      buildProgress.incrementAndGet();
+      if (canIndex(object)) {
         List<List<Object>> nonUnique = addOrUpdate(object, null);
         // TODO(twillouer) : must handle writeConcern.
         if (!nonUnique.isEmpty()) {
@@ -239,12 +434,253 @@ public abstract class IndexAbstract<T extends DBObject> {
     return Collections.emptyList();
   }
 
+  /**
+   * Build of an empty ordered index, like {@link #addAll(Iterable)} : the keys are extracted (by chunks in parallel
+   * for a big collection), sorted once, then the map is built from the sorted keys in linear time.
+   * On a duplicate key, the index is left partially built : it must be dropped.
+   *
+   * @param threads number of threads extracting the keys, 1 or less to extract them in the calling thread.
+   * @return keys in error if uniqueness is not respected, empty collection otherwise.
+   */
+  List<List<Object>> build(List<T> objects, int threads) {
+    final Object[] objectKeys = extractKeys(objects, threads);
+
+    // Same order than addOrUpdate() : the sorted entries keep the order of insertion under a key.
+    final List<BuildEntry<T>> entries = new ArrayList<BuildEntry<T>>(objects.size());
+    int count = 0;
+    for (int i = 0; i < objectKeys.length; i++) {
+      final T key = (T) objectKeys[i];
+      if (key == null || (sparse && isPartialKey(key))) {
+        continue;
+      }
+      if (!multiKey && containsList(key)) {
+        multiKey = true;
+      }
+      if (fields.size() > 2 && isPartialKey(key)) {
+        partialKeys++;
+      }
+      final T object = objects.get(i);
+      final Collection<T> keys = expandKey(object, key);
+      final boolean uniqueKey = isUnique(key);
+      final T toAdd = embedded(object); // DO NOT CLONE ! Indexes must share the same object.
+      for (T k : keys) {
+        entries.add(new BuildEntry<T>(k, key, toAdd, i, uniqueKey));
+      }
+      count++;
+    }
+
+    final Comparator<? super T> comparator = ((TreeMap<T, IndexedList<T>>) mapValues).comparator();
+    sortEntries(entries, comparator);
+
+    final List<Map.Entry<T, IndexedList<T>>> sorted = new ArrayList<Map.Entry<T, IndexedList<T>>>();
+    BuildEntry<T> duplicate = null;
+    for (int start = 0; start < entries.size(); ) {
+      final BuildEntry<T> first = entries.get(start);
+      final List<T> values = new ArrayList<T>();
+      values.add(first.object);
+      int end = start + 1;
+      for (; end < entries.size() && comparator.compare(first.key, entries.get(end).key) == 0; end++) {
+        final BuildEntry<T> entry = entries.get(end);
+        // addOrUpdate() stops at the first object with the key of a previous object.
+        if (entry.unique && (duplicate == null || entry.position < duplicate.position)) {
+          duplicate = entry;
+        }
+        values.add(entry.object);
+      }
+      sorted.add(new AbstractMap.SimpleImmutableEntry<T, IndexedList<T>>(first.key, new IndexedList<T>(values)));
+      start = end;
+    }
+    if (duplicate != null) {
+      return extractFields(objects.get(duplicate.position), duplicate.objectKey.keySet());
+    }
+
+    mapValues.putAll(new SortedEntries<T>(comparator, sorted));
+    size += count;
+    return Collections.emptyList();
+  }
+
+  // Stable : the entries of a key stay in their order of insertion.
+  private static <T> void sortEntries(List<BuildEntry<T>> entries, final Comparator<? super T> comparator) {
+    Collections.sort(entries, new Comparator<BuildEntry<T>>() {
+      @Override
+      public int compare(BuildEntry<T> entry1, BuildEntry<T> entry2) {
+        return comparator.compare(entry1.key, entry2.key);
+      }
+    });
+  }
+
+  /**
+   * @return the key of each object, null if the object is not in the index.
+   */
+  private Object[] extractKeys(final List<T> objects, int threads) {
+    final Object[] objectKeys = new Object[objects.size()];
+    if (threads <= 1) {
+      extractKeys(objects, objectKeys, 0, objectKeys.length);
+      return objectKeys;
+    }
+
+    // The objects are only read : the collection is locked by the caller.
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<?>> futures = new ArrayList<Future<?>>();
+      final int chunkSize = (objectKeys.length + threads - 1) / threads;
+      for (int start = 0; start < objectKeys.length; start += chunkSize) {
+        final int from = start;
+        final int to = Math.min(start + chunkSize, objectKeys.length);
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            extractKeys(objects, objectKeys, from, to);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MongoException("index build interrupted : " + name);
+    } finally {
+      executor.shutdown();
+    }
+    return objectKeys;
+  }
+
+  private void extractKeys(List<T> objects, Object[] objectKeys, int from, int to) {
+    for (int i = from; i < to; i++) {
+      final T object = objects.get(i);
+      if (canIndex(object)) {
+        final T key = getKeyFor(object);
+        if (key instanceof IndexKey) {
+          // Encoded once here, not by the comparisons of the sort.
+          ((IndexKey) key).encoded();
+        }
+        objectKeys[i] = key;
+      }
+      if ((i - from) % 1024 == 1023) {
+        buildProgress.addAndGet(1024);
+      }
+    }
+    buildProgress.addAndGet((to - from) % 1024);
+  }
+
+  /**
+   * A key of an object for the build of the index.
+   */
+  private static final class BuildEntry<T> {
+    private final T key;
+    // Key of the object, before its expansion by element of an array.
+    private final T objectKey;
+    private final T object;
+    // Position of the object in the collection.
+    private final int position;
+    private final boolean unique;
+
+    BuildEntry(T key, T objectKey, T object, int position, boolean unique) {
+      this.key = key;
+      this.objectKey = objectKey;
+      this.object = object;
+      this.position = position;
+      this.unique = unique;
+    }
+  }
+
+  /**
+   * Sorted entries, read by {@link TreeMap#putAll(Map)} : an empty TreeMap is built from a SortedMap
+   * with its comparator in linear time, without comparing the keys.
+   * The sub maps are views on the sub lists of the entries ; the map is read-only.
+   */
+  private static final class SortedEntries<T> extends AbstractMap<T, IndexedList<T>> implements SortedMap<T, IndexedList<T>> {
+    private final Comparator<? super T> comparator;
+    private final List<Map.Entry<T, IndexedList<T>>> entries;
+
+    SortedEntries(Comparator<? super T> comparator, List<Map.Entry<T, IndexedList<T>>> entries) {
+      this.comparator = comparator;
+      this.entries = entries;
+    }
+
+    @Override
+    public Set<Entry<T, IndexedList<T>>> entrySet() {
+      return new AbstractSet<Entry<T, IndexedList<T>>>() {
+        @Override
+        public Iterator<Entry<T, IndexedList<T>>> iterator() {
+          return Collections.unmodifiableList(entries).iterator();
+        }
+
+        @Override
+        public int size() {
+          return entries.size();
+        }
+      };
+    }
+
+    @Override
+    public Comparator<? super T> comparator() {
+      return comparator;
+    }
+
+    @Override
+    public T firstKey() {
+      if (entries.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      return entries.get(0).getKey();
+    }
+
+    @Override
+    public T lastKey() {
+      if (entries.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      return entries.get(entries.size() - 1).getKey();
+    }
+
+    @Override
+    public SortedMap<T, IndexedList<T>> subMap(T fromKey, T toKey) {
+      if (comparator.compare(fromKey, toKey) > 0) {
+        throw new IllegalArgumentException("fromKey > toKey");
+      }
+      return new SortedEntries<T>(comparator, entries.subList(lowerBound(fromKey), lowerBound(toKey)));
+    }
+
+    @Override
+    public SortedMap<T, IndexedList<T>> headMap(T toKey) {
+      return new SortedEntries<T>(comparator, entries.subList(0, lowerBound(toKey)));
+    }
+
+    @Override
+    public SortedMap<T, IndexedList<T>> tailMap(T fromKey) {
+      return new SortedEntries<T>(comparator, entries.subList(lowerBound(fromKey), entries.size()));
+    }
+
+    /**
+     * @return the position of the first entry with a key greater than or equal to the key (binary search).
+     */
+    private int lowerBound(T key) {
+      int low = 0, high = entries.size();
+      while (low < high) {
+        final int middle = (low + high) >>> 1;
+        if (comparator.compare(entries.get(middle).getKey(), key) < 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+
   // Only for unique index and for query with values. ($in doesn't work by example.)
   public List<T> get(DBObject query) {
     if (!unique) {
       throw new IllegalStateException("get is only for unique index");
     }
-    lookupCount++;
+    lookupCount.incrementAndGet();
 
     T key = getKeyFor(query);
     IndexedList<T> result = mapValues.get(key);
@@ -257,53 +693,482 @@ public abstract class IndexAbstract<T extends DBObject> {
   // @Nonnull
   public Collection<T> retrieveObjects(DBObject query) {
     // Optimization
-    if (unique && query.keySet().size() == 1) {
+    if (unique && fields.size() == 1 && query.keySet().size() == 1) {
       Object key = query.toMap().values().iterator().next();
       if (!(ExpressionParser.isDbObject(key) || key instanceof Binary || key instanceof byte[])) {
         List<T> result = get(query);
         if (result != null) {
-          return result;
+          // Copy : the caller can iterate after releasing the collection lock.
+          return new ArrayList<T>(result);
         }
       }
     }
 
-    lookupCount++;
+    return retrieve(query, expressionParser.buildFilter(query));
+  }
+
+  /**
+   * Objects under the keys matching the query, without filtering the objects themselves.
+   * Only a superset of the result : the caller must filter.
+   */
+  public Collection<T> retrieveCandidates(DBObject query) {
+    return retrieve(query, ExpressionParser.AllFilter);
+  }
+
+  private List<T> retrieve(DBObject query, Filter filter) {
+    lookupCount.incrementAndGet();
 
     // Filter for the key.
     Filter filterKey = expressionParser.buildFilter(query, getFields());
-    // Filter for the data.
-    Filter filter = expressionParser.buildFilter(query);
     List<T> result = new ArrayList<T>();
-    for (Map.Entry<T, IndexedList<T>> entry : mapValues.entrySet()) {
-      if (filterKey.apply(entry.getKey())) {
+    // An object of a multikey index can be under many keys.
+    final Set<T> seen = multiKey ? Collections.newSetFromMap(new IdentityHashMap<T, Boolean>()) : null;
+    long keyCount = 0, docCount = 0;
+    for (Map.Entry<T, IndexedList<T>> entry : scanEntries(query)) {
+      keyCount++;
+      // The key of a multikey index is only one element of the array : {a : {$gt : 1, $lt : 3}} matches [0, 5]
+      // but none of its keys. The whole object must be filtered.
+      if (multiKey || filterKey.apply(entry.getKey())) {
         for (T object : entry.getValue().getElements()) {
+          if (seen != null && !seen.add(object)) {
+            continue;
+          }
+          docCount++;
           if (filter.apply(object)) {
             result.add(object); // DO NOT CLONE ! need for update.
           }
         }
       }
     }
+    keysExamined.addAndGet(keyCount);
+    docsExamined.addAndGet(docCount);
     return result;
   }
 
-  public long getLookupCount() {
-    return lookupCount;
+  /**
+   * Objects matching the query, in the order of the index (see {@link #sortDirection(DBObject, DBObject)}).
+   * The objects under the same key stay in their order of insertion, in both directions.
+   *
+   * @param reverse true to read the index backward.
+   * @param limit   stop after this number of matching objects, 0 for all.
+   */
+  public List<T> retrieveSorted(DBObject query, Filter filter, boolean reverse, int limit) {
+    return scan(query, filter, reverse, limit, false);
   }
 
-  public int size() {
-    int size = 0;
-    if (unique) {
-      size = mapValues.size();
+  /**
+   * Keys of the objects matching the query, once by object, in the order of the index : the results of a query covered
+   * by the index are built from its keys, without reading the objects.
+   *
+   * @param filter  filter of the keys : must only use the fields of the index.
+   * @param reverse true to read the index backward.
+   * @param limit   stop after this number of matching objects, 0 for all.
+   */
+  public List<T> retrieveSortedKeys(DBObject query, Filter filter, boolean reverse, int limit) {
+    return scan(query, filter, reverse, limit, true);
+  }
+
+  private List<T> scan(DBObject query, Filter filter, boolean reverse, int limit, boolean keys) {
+    lookupCount.incrementAndGet();
+
+    Iterable<Map.Entry<T, IndexedList<T>>> entries = boundedEntries(query);
+    if (entries == null) {
+      entries = reverse ? ((NavigableMap<T, IndexedList<T>>) mapValues).descendingMap().entrySet() : mapValues.entrySet();
+    } else if (reverse) {
+      final List<Map.Entry<T, IndexedList<T>>> reversed = new ArrayList<Map.Entry<T, IndexedList<T>>>();
+      for (Map.Entry<T, IndexedList<T>> entry : entries) {
+        reversed.add(entry);
+      }
+      Collections.reverse(reversed);
+      entries = reversed;
+    }
+    final List<T> result = new ArrayList<T>();
+    long keyCount = 0, docCount = 0;
+    for (Iterator<Map.Entry<T, IndexedList<T>>> iterator = entries.iterator(); iterator.hasNext() && (limit <= 0 || result.size() < limit); ) {
+      final Map.Entry<T, IndexedList<T>> entry = iterator.next();
+      keyCount++;
+      if (keys) {
+        // Once by object under the key.
+        if (filter.apply(entry.getKey())) {
+          for (int i = entry.getValue().size(); i > 0 && (limit <= 0 || result.size() < limit); i--) {
+            result.add(entry.getKey());
+          }
+        }
+      } else {
+        for (Iterator<T> objects = entry.getValue().getElements().iterator(); objects.hasNext() && (limit <= 0 || result.size() < limit); ) {
+          final T object = objects.next();
+          docCount++;
+          if (filter.apply(object)) {
+            result.add(object); // DO NOT CLONE ! need for update.
+          }
+        }
+      }
+    }
+    keysExamined.addAndGet(keyCount);
+    docsExamined.addAndGet(docCount);
+    return result;
+  }
+
+  /**
+   * Estimate the number of objects returned for the query : the objects under the keys in the bounds of the query.
+   * Doesn't count as a lookup.
+   *
+   * @param max stop counting after max objects.
+   * @return the number of objects (more than max if there is more than max), the size of the index without bounds.
+   */
+  public long estimate(DBObject query, long max) {
+    final Object value = query.get(firstField());
+    if (unique && fields.size() == 1) {
+      if (isBound(value)) {
+        return 1;
+      }
+      if (ExpressionParser.isDbObject(value) && ((DBObject) value).get(QueryOperators.IN) instanceof Collection
+          && isBounds((Collection) ((DBObject) value).get(QueryOperators.IN))) {
+        return ((Collection) ((DBObject) value).get(QueryOperators.IN)).size();
+      }
+    }
+    final Iterable<Map.Entry<T, IndexedList<T>>> entries = boundedEntries(query);
+    if (entries == null) {
+      return size;
+    }
+    long count = 0;
+    for (Iterator<Map.Entry<T, IndexedList<T>>> iterator = entries.iterator(); iterator.hasNext() && count <= max; ) {
+      count += iterator.next().getValue().size();
+    }
+    return count;
+  }
+
+  /**
+   * Entries of the index which can match the query : the bounds of the query on an ordered index, all the entries otherwise.
+   * Only a superset, the keys must still be filtered.
+   */
+  private Iterable<Map.Entry<T, IndexedList<T>>> scanEntries(DBObject query) {
+    final Iterable<Map.Entry<T, IndexedList<T>>> entries = boundedEntries(query);
+    return entries == null ? mapValues.entrySet() : entries;
+  }
+
+  /**
+   * @return the entries in the bounds of the query on the first field, null if the query doesn't bound the index.
+   */
+  private Iterable<Map.Entry<T, IndexedList<T>>> boundedEntries(DBObject query) {
+    if (geoIndex == null && unique && fields.size() == 1 && !(mapValues instanceof NavigableMap)) {
+      return pointEntries(query);
+    }
+    if (!(mapValues instanceof NavigableMap) || (multiKey && fields.size() != 1)) {
+      // The key of a compound multikey index contains the whole array.
+      return null;
+    }
+    final NavigableMap<T, IndexedList<T>> navigableMap = (NavigableMap<T, IndexedList<T>>) mapValues;
+    final Object value = query.get(firstField());
+    if (isBound(value)) {
+      return range(navigableMap, boundKey(value), true, boundKey(value), true);
+    }
+    if (!(value instanceof DBObject) || value instanceof List) {
+      return null;
+    }
+    final DBObject condition = (DBObject) value;
+
+    // $in : one lookup by value, in the order of the index.
+    final Object in = condition.get(QueryOperators.IN);
+    if (in instanceof Collection && isBounds((Collection) in)) {
+      final Set<T> inKeys = new TreeSet<T>(navigableMap.comparator());
+      for (Object inValue : (Collection) in) {
+        inKeys.add(boundKey(inValue));
+      }
+      final List<Map.Entry<T, IndexedList<T>>> entries = new ArrayList<Map.Entry<T, IndexedList<T>>>();
+      for (T inKey : inKeys) {
+        for (Map.Entry<T, IndexedList<T>> entry : range(navigableMap, inKey, true, inKey, true)) {
+          entries.add(entry);
+        }
+      }
+      return entries;
+    }
+
+    // $gt/$gte/$lt/$lte : a range of the index.
+    T lower = null, upper = null;
+    boolean lowerInclusive = false, upperInclusive = false;
+    if (isBound(condition.get(QueryOperators.GT))) {
+      lower = boundKey(condition.get(QueryOperators.GT));
+    } else if (isBound(condition.get(QueryOperators.GTE))) {
+      lower = boundKey(condition.get(QueryOperators.GTE));
+      lowerInclusive = true;
+    }
+    if (isBound(condition.get(QueryOperators.LT))) {
+      upper = boundKey(condition.get(QueryOperators.LT));
+    } else if (isBound(condition.get(QueryOperators.LTE))) {
+      upper = boundKey(condition.get(QueryOperators.LTE));
+      upperInclusive = true;
+    }
+    if (multiKey && lower != null && upper != null) {
+      // Each bound can be matched by a different element of an array.
+      upper = null;
+    }
+    if (lower == null && upper == null) {
+      return null;
+    }
+    if (!asc) {
+      // The map is in descending order.
+      final T key = lower;
+      lower = upper;
+      upper = key;
+      final boolean inclusive = lowerInclusive;
+      lowerInclusive = upperInclusive;
+      upperInclusive = inclusive;
+    }
+    return range(navigableMap, lower, lowerInclusive, upper, upperInclusive);
+  }
+
+  /**
+   * Entries of a hashed map (the _id index) : equality and $in only.
+   */
+  private Iterable<Map.Entry<T, IndexedList<T>>> pointEntries(DBObject query) {
+    final String field = firstField();
+    final Object value = query.get(field);
+    final Collection values;
+    if (isBound(value)) {
+      values = Collections.singletonList(value);
+    } else if (ExpressionParser.isDbObject(value) && ((DBObject) value).get(QueryOperators.IN) instanceof Collection
+        && isBounds((Collection) ((DBObject) value).get(QueryOperators.IN))) {
+      values = (Collection) ((DBObject) value).get(QueryOperators.IN);
     } else {
-      for (Map.Entry<T, IndexedList<T>> entry : mapValues.entrySet()) {
-        size += entry.getValue().size();
+      return null;
+    }
+    final Map<T, IndexedList<T>> entries = new LinkedHashMap<T, IndexedList<T>>();
+    for (Object pointValue : values) {
+      final T key = getKeyFor(new BasicDBObject(field, pointValue));
+      final IndexedList<T> objects = mapValues.get(key);
+      if (objects != null) {
+        entries.put(key, objects);
       }
     }
+    return entries.entrySet();
+  }
+
+  /**
+   * Entries between two keys of the first field, in the order of the map.
+   *
+   * @param from null to start at the first entry.
+   * @param to   null to stop at the last entry.
+   */
+  private Iterable<Map.Entry<T, IndexedList<T>>> range(final NavigableMap<T, IndexedList<T>> map, T from, boolean fromInclusive, final T to, final boolean toInclusive) {
+    if (from != null && to != null && map.comparator().compare(from, to) > 0) {
+      return Collections.emptyList();
+    }
+    if (fields.size() == 1) {
+      if (from != null && to != null) {
+        return map.subMap(from, fromInclusive, to, toInclusive).entrySet();
+      }
+      if (from != null) {
+        return map.tailMap(from, fromInclusive).entrySet();
+      }
+      return map.headMap(to, toInclusive).entrySet();
+    }
+
+    // Compound index : the keys with the same first field are together, but {a : 1} is not at the start of
+    // the {a : 1, b : ...} (depends on the order of the index).
+    NavigableMap<T, IndexedList<T>> tail = map;
+    if (from != null && fromInclusive) {
+      T start = from;
+      for (T key : map.headMap(from, false).descendingKeySet()) {
+        if (!sameFirstField(map, key, from)) {
+          break;
+        }
+        start = key;
+      }
+      tail = map.tailMap(start, true);
+    } else if (from != null) {
+      tail = map.tailMap(from, false);
+      for (T key : tail.keySet()) {
+        if (!sameFirstField(map, key, from)) {
+          break;
+        }
+        tail = map.tailMap(key, false);
+      }
+    }
+    final Set<Map.Entry<T, IndexedList<T>>> entries = tail.entrySet();
+    if (to == null) {
+      return entries;
+    }
+    return new Iterable<Map.Entry<T, IndexedList<T>>>() {
+      @Override
+      public Iterator<Map.Entry<T, IndexedList<T>>> iterator() {
+        return new UpToIterator(entries.iterator(), map.comparator(), to, toInclusive);
+      }
+    };
+  }
+
+  private boolean sameFirstField(NavigableMap<T, IndexedList<T>> map, T key, T firstFieldKey) {
+    final T keyFirstField = firstFieldKey(key);
+    return keyFirstField != null && map.comparator().compare(keyFirstField, firstFieldKey) == 0;
+  }
+
+  /**
+   * Stop on the first entry after a key of the first field.
+   */
+  private final class UpToIterator implements Iterator<Map.Entry<T, IndexedList<T>>> {
+    private final Iterator<Map.Entry<T, IndexedList<T>>> iterator;
+    private final Comparator<? super T> comparator;
+    private final T to;
+    private final boolean toInclusive;
+    private Map.Entry<T, IndexedList<T>> next;
+    private boolean done = false;
+
+    UpToIterator(Iterator<Map.Entry<T, IndexedList<T>>> iterator, Comparator<? super T> comparator, T to, boolean toInclusive) {
+      this.iterator = iterator;
+      this.comparator = comparator;
+      this.to = to;
+      this.toInclusive = toInclusive;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !done && iterator.hasNext()) {
+        final Map.Entry<T, IndexedList<T>> entry = iterator.next();
+        final T firstFieldKey = firstFieldKey(entry.getKey());
+        final int compare = firstFieldKey == null ? -1 : comparator.compare(firstFieldKey, to);
+        if (compare < 0 || (compare == 0 && toInclusive)) {
+          next = entry;
+        } else {
+          done = true;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<T, IndexedList<T>> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final Map.Entry<T, IndexedList<T>> entry = next;
+      next = null;
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * @return the key with only the first field of this key, null if it doesn't have the first field.
+   */
+  private T firstFieldKey(T key) {
+    Object value = key;
+    for (String field : Util.split(firstField())) {
+      if (!(value instanceof DBObject) || value instanceof List || !((DBObject) value).containsField(field)) {
+        return null;
+      }
+      value = ((DBObject) value).get(field);
+    }
+    return boundKey(value);
+  }
+
+  private String firstField() {
+    return fields.iterator().next();
+  }
+
+  /**
+   * @return true if the value can bound a scan of the index : compared like in the index.
+   */
+  static boolean isBound(Object value) {
+    if (value instanceof Double || value instanceof Float) {
+      return !Double.isNaN(((Number) value).doubleValue());
+    }
+    return value instanceof Number || value instanceof String || value instanceof Date
+        || value instanceof ObjectId || value instanceof Boolean;
+  }
+
+  private static boolean isBounds(Collection values) {
+    for (Object value : values) {
+      if (!isBound(value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the key of the index for this value of the first field.
+   */
+  private T boundKey(Object value) {
+    final List<String> path = Util.split(firstField());
+    Object key = value;
+    for (int i = path.size() - 1; i > 0; i--) {
+      key = new BasicDBObject(path.get(i), key);
+    }
+    final IndexKey boundKey = new IndexKey();
+    boundKey.put(path.get(0), key);
+    //noinspection unchecked
+    return (T) boundKey;
+  }
+
+  /**
+   * Keys of the object in the index, from its key.
+   *
+   * @return the key by default, a key by element of an array for a multikey index.
+   */
+  Collection<T> expandKey(DBObject object, T key) {
+    return Collections.singletonList(key);
+  }
+
+  static boolean containsList(Object value) {
+    if (value instanceof List) {
+      return true;
+    }
+    if (value instanceof DBObject) {
+      for (String key : ((DBObject) value).keySet()) {
+        if (containsList(((DBObject) value).get(key))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  public long getLookupCount() {
+    return lookupCount.get();
+  }
+
+  /**
+   * @return number of keys of the index read by the finds.
+   */
+  public long getKeysExamined() {
+    return keysExamined.get();
+  }
+
+  /**
+   * @return number of documents of the index read by the finds, after the filter of the keys.
+   */
+  public long getDocsExamined() {
+    return docsExamined.get();
+  }
+
+  public int size() {
     return size;
   }
 
+  /**
+   * @return number of objects read by the build of the index (see {@link #addAll(Iterable)}).
+   */
+  public long getBuildProgress() {
+    return buildProgress.get();
+  }
+
   public List<DBObject> values() {
-    List<DBObject> values = new ArrayList<DBObject>(mapValues.size() * 10);
+    List<DBObject> values = new ArrayList<DBObject>(size);
+    if (multiKey) {
+      final Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>(size));
+      for (IndexedList<T> objects : mapValues.values()) {
+        for (T object : objects.getElements()) {
+          if (seen.add(object)) {
+            values.add(object);
+          }
+        }
+      }
+      return values;
+    }
     for (IndexedList<T> objects : mapValues.values()) {
       values.addAll(objects.getElements());
     }
@@ -312,6 +1177,9 @@ public abstract class IndexAbstract<T extends DBObject> {
 
   public void clear() {
     mapValues.clear();
+    size = 0;
+    multiKey = false;
+    partialKeys = 0;
   }
 
   /**
@@ -327,14 +1195,151 @@ public abstract class IndexAbstract<T extends DBObject> {
 
     //get keys including embedded indexes
     for (String field : fields) {
-      final Object o = queryFields.get(field);
-      if (o == null && !keyEmbeddedFieldMatch(field, queryFields)) {
+      if (!canHandle(field, queryFields)) {
         return false;
       }
-      if (ExpressionParser.isDbObject(o) && ExpressionParser.toDbObject(o).containsField(QueryOperators.EXISTS)) {
-        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Return true if the query can match objects which are not in the index (see {@link #canIndex(DBObject)}) :
+   * the objects without the field match a null, a $ne, a $nin, a $not or an $exists : false.
+   * The index can't be used for such a query, even if it handles its fields.
+   *
+   * @param query the query.
+   * @return true if the objects missing from the index can match.
+   */
+  public boolean canMatchMissing(final DBObject query) {
+    for (String field : isPrefixIndex() ? Collections.singletonList(firstField()) : fields) {
+      if (query.containsField(field) && canMatchMissing(query.get(field))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean canMatchMissing(Object condition) {
+    if (condition == null) {
+      return true;
+    }
+    if (!ExpressionParser.isDbObject(condition) || condition instanceof List) {
+      return false;
+    }
+    final DBObject ref = ExpressionParser.toDbObject(condition);
+    for (String operator : ref.keySet()) {
+      final Object value = ref.get(operator);
+      if (ExpressionParser.NE.equals(operator) || ExpressionParser.NIN.equals(operator) || ExpressionParser.NOT.equals(operator)) {
+        return true;
+      }
+      if (ExpressionParser.EQ.equals(operator) && value == null) {
+        return true;
+      }
+      if (ExpressionParser.IN.equals(operator) && value instanceof Collection && ((Collection) value).contains(null)) {
+        return true;
+      }
+      if (ExpressionParser.EXISTS.equals(operator)
+          && !(Boolean.TRUE.equals(value) || (value instanceof Number && ((Number) value).doubleValue() != 0))) {
+        return true;
       }
     }
+    return false;
+  }
+
+  /**
+   * Return true if this object must be in the index.
+   * A compound index contains all the objects with its first field : it can be used for a query on its first field.
+   *
+   * @param object object of the collection.
+   * @return true if the object is in the index.
+   */
+  public boolean canIndex(final DBObject object) {
+    if (!isPrefixIndex()) {
+      return canHandle(object);
+    }
+    return object != null && canHandle(firstField(), object);
+  }
+
+  /**
+   * Return true if the index can be used for a query on its first field only.
+   *
+   * @param query the query.
+   * @return true if the first field of the index bounds the query.
+   */
+  public boolean canHandlePrefix(final DBObject query) {
+    if (!isPrefixIndex() || query == null) {
+      return false;
+    }
+    final Object value = query.get(firstField());
+    if (isBound(value)) {
+      return true;
+    }
+    if (!(value instanceof DBObject) || value instanceof List) {
+      return false;
+    }
+    final DBObject condition = (DBObject) value;
+    final Object in = condition.get(QueryOperators.IN);
+    return (in instanceof Collection && isBounds((Collection) in))
+        || isBound(condition.get(QueryOperators.GT)) || isBound(condition.get(QueryOperators.GTE))
+        || isBound(condition.get(QueryOperators.LT)) || isBound(condition.get(QueryOperators.LTE));
+  }
+
+  /**
+   * Return the direction in which the index gives the objects of the query in the order of the sort : the fields of
+   * the sort must be the next fields of the index after its first fields fixed by an equality in the query.
+   * The map of the index is ordered by the direction of its first field only : all the fields of the sort must have
+   * the same direction.
+   *
+   * @param query   the query.
+   * @param orderBy the sort.
+   * @return 1 in the order of the index, -1 in the reverse order, 0 if the index can't give this order.
+   */
+  public int sortDirection(final DBObject query, final DBObject orderBy) {
+    if (!(mapValues instanceof NavigableMap) || geoIndex != null || multiKey || partialKeys > 0 || orderBy == null) {
+      return 0;
+    }
+    final List<String> indexFields = new ArrayList<String>(fields);
+    int fixed = 0;
+    while (fixed < indexFields.size() && query != null && isBound(query.get(indexFields.get(fixed)))) {
+      fixed++;
+    }
+    int position = fixed;
+    int direction = 0;
+    for (String field : orderBy.keySet()) {
+      final int indexPosition = indexFields.indexOf(field);
+      if (indexPosition >= 0 && indexPosition < fixed) {
+        // Same value for all the objects.
+        continue;
+      }
+      final Object value = orderBy.get(field);
+      if (indexPosition != position || !(value instanceof Number)) {
+        return 0;
+      }
+      final int fieldDirection = ((Number) value).intValue() < 0 ? -1 : 1;
+      if (direction != 0 && direction != fieldDirection) {
+        return 0;
+      }
+      direction = fieldDirection;
+      position++;
+    }
+    if (direction == 0) {
+      return 0;
+    }
+    return asc == (direction > 0) ? 1 : -1;
+  }
+
+  private boolean isPrefixIndex() {
+    return fields.size() > 1 && !sparse && geoIndex == null && mapValues instanceof NavigableMap;
+  }
+
+  private boolean canHandle(final String field, final DBObject queryFields) {
+    final Object o = queryFields.get(field);
+    if (o == null && !keyEmbeddedFieldMatch(field, queryFields)) {
+      return false;
+    }
+    if (ExpressionParser.isDbObject(o) && ExpressionParser.toDbObject(o).containsField(QueryOperators.EXISTS)) {
+      return false;
+    }
     return true;
   }
 
@@ -371,49 +1376,13 @@ public abstract class IndexAbstract<T extends DBObject> {
 
   /**
    * Create the key for the hashmap.
-   * TODO: This is actually an invalid key model. If a field within a list is indexed, one document produces multiple keys
+   * If a field within a list is indexed, one document produces multiple keys : see {@link #expandKey(DBObject, DBObject)}.
    */
   T getKeyFor(DBObject object) {
-    DBObject applyProjections = FongoDBCollection.applyProjections(object, keys);
-    return (T) pruneEmptyListObjects(applyProjections);
-  }
-
-  // Applying the projection may leave some empty objects within lists.
-  // For example, if our full document is: { _id: 1, list: [ {foo: 7}, {foo: 8}, {bar: 6}, {baz: 3} ] }
-  // Then a projection of { "list.foo": 1 } will result in: { list: [ {foo: 7}, {foo: 8}, {}, {} ] }
-  // This poses a problem for unique indexes, because the same values for indexed fields can have 
-  // different projections in the presence of list size variation. 
-  private DBObject pruneEmptyListObjects(DBObject projectedObject) {
-    BasicDBObject ret = new BasicDBObject();
-    for (String projectionKey : projectedObject.keySet()) {
-      final Object projectedValue = projectedObject.get(projectionKey);
-      if (projectedValue instanceof List) {
-        BasicDBList prunedList = pruneList((List) projectedValue);
-        ret.put(projectionKey, prunedList);
-      } else if (ExpressionParser.isDbObject(projectedValue)) {
-        ret.put(projectionKey, pruneEmptyListObjects((DBObject) projectedValue));
-      } else {
-        ret.put(projectionKey, projectedValue);
-      }
-    }
-    return ret;
-  }
-
-  private BasicDBList pruneList(List inList) {
-    BasicDBList ret = new BasicDBList();
-
-    for (Object listItem : inList) {
-      if (listItem instanceof List) {
-        ret.add((List) listItem);
-      } else if (listItem instanceof DBObject){
-        if (!((DBObject) listItem).keySet().isEmpty()) {
-          ret.add(listItem);
-        }
-      } else {
-        ret.add(listItem);
-      }
+    if (keyExtractor != null) {
+      return (T) keyExtractor.extract(object);
     }
-    return ret;
+    return (T) IndexKeyExtractor.project(object, keys);
   }
 
   private List<List<Object>> extractFields(DBObject dbObject, Collection<String> fields) {
@@ -1,5 +1,6 @@
 package com.github.fakemongo.impl.index;
 
+import com.github.fakemongo.impl.ExpressionParser;
 import com.github.fakemongo.impl.Util;
 import com.mongodb.DBObject;
 import com.mongodb.MongoException;
@@ -13,15 +14,22 @@ public final class IndexFactory {
   }
 
   public static IndexAbstract create(String name, DBObject keys, boolean unique, boolean sparse) throws MongoException {
+    return create(name, keys, unique, sparse, new ExpressionParser());
+  }
+
+  /**
+   * @param expressionParser parser of the queries of the collection.
+   */
+  public static IndexAbstract create(String name, DBObject keys, boolean unique, boolean sparse, ExpressionParser expressionParser) throws MongoException {
     String geoIndex = getGeoKey(keys);
     if (geoIndex != null) {
-      return new GeoIndex(name, keys, unique, geoIndex, sparse);
+      return new GeoIndex(name, keys, unique, geoIndex, sparse, expressionParser);
     } else {
       String hashed = getHashedKey(keys);
       if (hashed != null) {
-        return new HashedIndex(name, keys, unique, hashed, sparse);
+        return new HashedIndex(name, keys, unique, hashed, sparse, expressionParser);
       }
-      return new Index(name, keys, unique, sparse);
+      return new Index(name, keys, unique, sparse, expressionParser);
     }
   }
 
@@ -0,0 +1,183 @@
+package com.github.fakemongo.impl.index;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.DBRef;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import org.bson.BSONObject;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+/**
+ * Key of an entry in an index.
+ * <p/>
+ * {@link BasicDBObject#hashCode()} encodes the whole object in BSON : it's slow and spreads badly on small keys
+ * like <code>{_id : 1}</code>, which turn the hashed indexes into long collision chains on big collections.
+ * This key computes a cheap hash compatible with {@link BasicDBObject#equals(Object)} (equal objects must have the same hash,
+ * and BasicDBObject ignore the order of the fields).
+ */
+final class IndexKey extends BasicDBObject {
+  // See IndexKeyEncoding, computed on the first comparison : a key is not modified once in an index.
+  private transient volatile byte[] encoded;
+  private transient volatile boolean encodable = true;
+
+  /**
+   * @return the key encoded by {@link IndexKeyEncoding}, null if it can't be encoded.
+   */
+  byte[] encoded() {
+    byte[] bytes = encoded;
+    if (bytes == null && encodable) {
+      bytes = IndexKeyEncoding.encode(this);
+      encodable = bytes != null;
+      encoded = bytes;
+    }
+    return bytes;
+  }
+
+  private void modified() {
+    encoded = null;
+    encodable = true;
+  }
+
+  @Override
+  public Object put(String key, Object val) {
+    modified();
+    return super.put(key, val);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void putAll(Map m) {
+    modified();
+    super.putAll(m);
+  }
+
+  @Override
+  public void putAll(BSONObject o) {
+    modified();
+    super.putAll(o);
+  }
+
+  @Override
+  public Object removeField(String key) {
+    modified();
+    return super.removeField(key);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    modified();
+    return super.remove(key);
+  }
+
+  @Override
+  public void clear() {
+    modified();
+    super.clear();
+  }
+
+  @Override
+  public int hashCode() {
+    return hashDocument(this);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o instanceof IndexKey && sameScalarValues(this, (IndexKey) o)) {
+      return true;
+    }
+    return super.equals(o);
+  }
+
+  /**
+   * Fast path for the common case (same fields, same simple values), doesn't need the BSON encoding.
+   */
+  private static boolean sameScalarValues(IndexKey key1, IndexKey key2) {
+    if (key1.size() != key2.size()) {
+      return false;
+    }
+    for (Map.Entry<String, Object> entry : key1.entrySet()) {
+      final Object value1 = entry.getValue();
+      final Object value2 = key2.get(entry.getKey());
+      if (value1 == null || value2 == null || value1.getClass() != value2.getClass() || !isScalar(value1) || !value1.equals(value2)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isScalar(Object value) {
+    return value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Boolean
+        || value instanceof ObjectId || (value instanceof Double && !((Double) value).isNaN()) || value.getClass() == Date.class;
+  }
+
+  private static int hashDocument(Map<?, ?> document) {
+    int hash = 0;
+    // Sum : order of the fields doesn't matter.
+    for (Map.Entry<?, ?> entry : document.entrySet()) {
+      hash += entry.getKey().hashCode() ^ hash(entry.getValue());
+    }
+    return hash;
+  }
+
+  @SuppressWarnings("unchecked")
+  static int hash(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof Object[]) {
+      return hash(Arrays.asList((Object[]) value));
+    }
+    if (value instanceof List) {
+      int hash = 1;
+      for (Object item : (List) value) {
+        hash = 31 * hash + hash(item);
+      }
+      return hash;
+    }
+    if (value instanceof DBObject) {
+      return hashDocument(((DBObject) value).toMap());
+    }
+    if (value instanceof Map) {
+      return hashDocument((Map) value);
+    }
+    if (value instanceof Number) {
+      // 1, 1L and 1.0 can collide, they are only different keys.
+      return Double.valueOf(((Number) value).doubleValue()).hashCode();
+    }
+    if (value instanceof String || value instanceof Boolean || value instanceof ObjectId || value instanceof UUID) {
+      return value.hashCode();
+    }
+    if (value instanceof Character) {
+      return value.toString().hashCode();
+    }
+    if (value instanceof Date) {
+      return Long.valueOf(((Date) value).getTime()).hashCode();
+    }
+    if (value instanceof byte[]) {
+      return Arrays.hashCode((byte[]) value);
+    }
+    if (value instanceof Binary) {
+      return Arrays.hashCode(((Binary) value).getData());
+    }
+    if (value instanceof Pattern) {
+      return ((Pattern) value).pattern().hashCode();
+    }
+    if (value instanceof DBRef) {
+      // Encoded like {$ref : .., $id : ..}
+      final DBRef dbRef = (DBRef) value;
+      return ("$ref".hashCode() ^ hash(dbRef.getCollectionName())) + ("$id".hashCode() ^ hash(dbRef.getId()))
+          + (dbRef.getDatabaseName() == null ? 0 : "$db".hashCode() ^ hash(dbRef.getDatabaseName()));
+    }
+    // MinKey, MaxKey, Code... don't always redefine hashCode.
+    return value.getClass().getName().hashCode();
+  }
+}
@@ -0,0 +1,135 @@
+package com.github.fakemongo.impl.index;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import org.bson.types.ObjectId;
+
+/**
+ * Encoding of the keys of an index in bytes, in the order of {@link com.github.fakemongo.impl.ExpressionParser.ObjectComparator} :
+ * two encoded keys are compared byte by byte (unsigned), without the type checks of the comparator.
+ * <p/>
+ * A key is encoded if its values are null, numbers, strings, ObjectIds, booleans, dates or embedded objects of these values.
+ * Each field is its name then its value, tagged by its type in the BSON order of the types :
+ * <ul>
+ * <li>a number is a double, with the bits of its sign and of its exponent flipped to be ordered as unsigned bytes ;</li>
+ * <li>a string (or the name of a field) is its chars, each one after a byte 1, then a byte 0 : a prefix comes first ;</li>
+ * <li>an embedded object is its fields, each one after a byte 1, then a byte 0.</li>
+ * </ul>
+ * The numbers whose double is not exact (beyond 2^53, floats) are not encoded : the comparator compares them as decimals.
+ * <p/>
+ * Thread Safe.
+ */
+final class IndexKeyEncoding {
+  // Types, in the order of the weights of the comparator.
+  private static final int NULL = 1;
+  private static final int NUMBER = 2;
+  private static final int STRING = 3;
+  private static final int OBJECT = 5;
+  private static final int OBJECT_ID = 8;
+  private static final int BOOLEAN = 9;
+  private static final int DATE = 10;
+
+  private static final double MAX_EXACT_DOUBLE = 1L << 53;
+
+  private IndexKeyEncoding() {
+  }
+
+  /**
+   * @return the encoded key, null if a value of the key can't be encoded.
+   */
+  static byte[] encode(DBObject key) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+    return encodeFields(key, bytes) ? bytes.toByteArray() : null;
+  }
+
+  /**
+   * Unsigned comparison of encoded keys.
+   */
+  static int compare(byte[] key1, byte[] key2) {
+    final int length = Math.min(key1.length, key2.length);
+    for (int i = 0; i < length; i++) {
+      final int byte1 = key1[i] & 0xFF;
+      final int byte2 = key2[i] & 0xFF;
+      if (byte1 != byte2) {
+        return byte1 < byte2 ? -1 : 1;
+      }
+    }
+    return key1.length < key2.length ? -1 : (key1.length == key2.length ? 0 : 1);
+  }
+
+  private static boolean encodeFields(DBObject object, ByteArrayOutputStream bytes) {
+    for (String field : object.keySet()) {
+      bytes.write(1);
+      encodeChars(field, bytes);
+      if (!encodeValue(object.get(field), bytes)) {
+        return false;
+      }
+    }
+    bytes.write(0);
+    return true;
+  }
+
+  private static boolean encodeValue(Object value, ByteArrayOutputStream bytes) {
+    if (value == null) {
+      bytes.write(NULL);
+      return true;
+    }
+    final Class<?> clazz = value.getClass();
+    if (clazz == Integer.class || clazz == Long.class || clazz == Short.class || clazz == Double.class) {
+      final double number = ((Number) value).doubleValue();
+      if (!(Math.abs(number) <= MAX_EXACT_DOUBLE) || (number == 0 && 1 / number < 0)) {
+        // NaN, beyond 2^53, or -0.0 (before 0.0 for a Double, equal to 0 for an Integer).
+        return false;
+      }
+      final long bits = Double.doubleToLongBits(number);
+      bytes.write(NUMBER);
+      writeLong(bits < 0 ? ~bits : bits ^ Long.MIN_VALUE, bytes);
+      return true;
+    }
+    if (clazz == String.class) {
+      bytes.write(STRING);
+      encodeChars((String) value, bytes);
+      return true;
+    }
+    if (clazz == BasicDBObject.class && !((DBObject) value).containsField("type")) {
+      // An object with a "type" is compared as GeoJSON to the other values.
+      bytes.write(OBJECT);
+      return encodeFields((DBObject) value, bytes);
+    }
+    if (clazz == ObjectId.class) {
+      bytes.write(OBJECT_ID);
+      final byte[] objectId = ((ObjectId) value).toByteArray();
+      bytes.write(objectId, 0, objectId.length);
+      return true;
+    }
+    if (clazz == Boolean.class) {
+      bytes.write(BOOLEAN);
+      bytes.write((Boolean) value ? 1 : 0);
+      return true;
+    }
+    if (clazz == Date.class) {
+      bytes.write(DATE);
+      writeLong(((Date) value).getTime() ^ Long.MIN_VALUE, bytes);
+      return true;
+    }
+    return false;
+  }
+
+  private static void encodeChars(String chars, ByteArrayOutputStream bytes) {
+    for (int i = 0, length = chars.length(); i < length; i++) {
+      final char c = chars.charAt(i);
+      bytes.write(1);
+      bytes.write(c >>> 8);
+      bytes.write(c);
+    }
+    bytes.write(0);
+  }
+
+  private static void writeLong(long value, ByteArrayOutputStream bytes) {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      bytes.write((int) (value >>> shift));
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package com.github.fakemongo.impl.index;
+
+import com.github.fakemongo.impl.ExpressionParser;
+import com.github.fakemongo.impl.Util;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.FongoDBCollection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.mongodb.FongoDBCollection.ID_FIELD_NAME;
+
+/**
+ * Extract the key of an index from an object : only the paths of the fields of the index are read.
+ * <p/>
+ * Gives the key of {@link #project(DBObject, DBObject)} (the projection of the fields of the index) without its generic
+ * projection engine and without copying the key twice.
+ * <p/>
+ * Thread Safe.
+ */
+final class IndexKeyExtractor {
+  // Split paths of the fields, _id excepted.
+  private final String[][] paths;
+  // True if _id is a field of the index : first field of the key.
+  private final boolean withId;
+
+  private IndexKeyExtractor(String[][] paths, boolean withId) {
+    this.paths = paths;
+    this.withId = withId;
+  }
+
+  /**
+   * @param keys the keys of the index, prepared for a projection.
+   * @return the extractor, null if the key must be given by {@link #project(DBObject, DBObject)}.
+   */
+  static IndexKeyExtractor compile(DBObject keys) {
+    final List<String> fields = new ArrayList<String>();
+    boolean withId = false;
+    for (String field : keys.keySet()) {
+      final Object value = keys.get(field);
+      if (!(value instanceof Number)) {
+        return null;
+      }
+      if (ID_FIELD_NAME.equals(field)) {
+        withId = ((Number) value).intValue() > 0;
+      } else if (field.startsWith(ID_FIELD_NAME) || ((Number) value).intValue() <= 0) {
+        // The projection keeps the whole _id for "_id.a".
+        return null;
+      } else {
+        fields.add(field);
+      }
+    }
+
+    final String[][] paths = new String[fields.size()][];
+    for (int i = 0; i < paths.length; i++) {
+      final String field = fields.get(i);
+      for (String other : fields) {
+        if (other != field && (other.equals(field) || other.startsWith(field + "."))) {
+          return null;
+        }
+      }
+      final List<String> path = Util.split(field);
+      if (path.isEmpty() || path.contains("")) {
+        return null;
+      }
+      paths[i] = path.toArray(new String[path.size()]);
+    }
+    return new IndexKeyExtractor(paths, withId);
+  }
+
+  DBObject extract(DBObject object) {
+    final IndexKey key = new IndexKey();
+    if (withId) {
+      key.put(ID_FIELD_NAME, copy(object.get(ID_FIELD_NAME)));
+    }
+    boolean lists = false;
+    for (String[] path : paths) {
+      lists |= extract(key, object, path, 0, false);
+    }
+    if (lists) {
+      pruneLists(key);
+    }
+    return key;
+  }
+
+  /**
+   * Same walk than the projection of the path.
+   *
+   * @return true if a list has been created.
+   */
+  private static boolean extract(BasicDBObject key, DBObject object, String[] path, int index, boolean inList) {
+    final String subKey = path[index];
+    final Object value = object.get(subKey);
+    if (index + 1 == path.length) {
+      if (value != null) {
+        // The projection is only pruned outside of the lists.
+        key.put(subKey, inList ? value : copy(value));
+      }
+      return false;
+    }
+    if (value instanceof List) {
+      BasicDBList list = (BasicDBList) key.get(subKey);
+      if (list == null) {
+        list = new BasicDBList();
+        key.put(subKey, list);
+      }
+      int position = 0;
+      for (Object element : (List) value) {
+        if (ExpressionParser.isDbObject(element)) {
+          final BasicDBObject subObject;
+          if (list.size() > position) {
+            subObject = (BasicDBObject) list.get(position);
+          } else {
+            subObject = new BasicDBObject();
+            list.add(subObject);
+          }
+          extract(subObject, ExpressionParser.toDbObject(element), path, index + 1, true);
+        }
+        position++;
+      }
+      return true;
+    }
+    if (ExpressionParser.isDbObject(value)) {
+      BasicDBObject subObject = (BasicDBObject) key.get(subKey);
+      if (subObject == null) {
+        subObject = new BasicDBObject();
+        key.put(subKey, subObject);
+      }
+      return extract(subObject, ExpressionParser.toDbObject(value), path, index + 1, inList);
+    }
+    return false;
+  }
+
+  // Remove the empty objects of the lists created by the walk, like pruneEmptyListObjects().
+  private static void pruneLists(DBObject key) {
+    for (String field : key.keySet()) {
+      final Object value = key.get(field);
+      if (value instanceof List) {
+        for (Iterator iterator = ((List) value).iterator(); iterator.hasNext(); ) {
+          final Object element = iterator.next();
+          if (!(element instanceof List) && element instanceof DBObject && ((DBObject) element).keySet().isEmpty()) {
+            iterator.remove();
+          }
+        }
+      } else if (ExpressionParser.isDbObject(value)) {
+        pruneLists((DBObject) value);
+      }
+    }
+  }
+
+  private static Object copy(Object value) {
+    if (value instanceof List) {
+      return pruneList((List) value);
+    } else if (ExpressionParser.isDbObject(value)) {
+      return pruneEmptyListObjects((DBObject) value, new BasicDBObject());
+    }
+    return value;
+  }
+
+  /**
+   * The key as the projection of the fields of the index.
+   */
+  static DBObject project(DBObject object, DBObject keys) {
+    DBObject applyProjections = FongoDBCollection.applyProjections(object, keys);
+    return pruneEmptyListObjects(applyProjections, new IndexKey());
+  }
+
+  // Applying the projection may leave some empty objects within lists.
+  // For example, if our full document is: { _id: 1, list: [ {foo: 7}, {foo: 8}, {bar: 6}, {baz: 3} ] }
+  // Then a projection of { "list.foo": 1 } will result in: { list: [ {foo: 7}, {foo: 8}, {}, {} ] }
+  // This poses a problem for unique indexes, because the same values for indexed fields can have
+  // different projections in the presence of list size variation.
+  private static DBObject pruneEmptyListObjects(DBObject projectedObject, BasicDBObject ret) {
+    for (String projectionKey : projectedObject.keySet()) {
+      final Object projectedValue = projectedObject.get(projectionKey);
+      if (projectedValue instanceof List) {
+        BasicDBList prunedList = pruneList((List) projectedValue);
+        ret.put(projectionKey, prunedList);
+      } else if (ExpressionParser.isDbObject(projectedValue)) {
+        ret.put(projectionKey, pruneEmptyListObjects((DBObject) projectedValue, new BasicDBObject()));
+      } else {
+        ret.put(projectionKey, projectedValue);
+      }
+    }
+    return ret;
+  }
+
+  private static BasicDBList pruneList(List inList) {
+    BasicDBList ret = new BasicDBList();
+
+    for (Object listItem : inList) {
+      if (listItem instanceof List) {
+        ret.add((List) listItem);
+      } else if (listItem instanceof DBObject) {
+        if (!((DBObject) listItem).keySet().isEmpty()) {
+          ret.add(listItem);
+        }
+      } else {
+        ret.add(listItem);
+      }
+    }
+    return ret;
+  }
+}
@@ -1,103 +1,174 @@
 package com.github.fakemongo.impl.index;
 
-import java.util.*;
-
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Elements of a key of an index, in insertion order : a linked list with the nodes of the elements in a map,
+ * so add, contains and remove are O(1) even for the keys with many elements.
+ * <p/>
+ * An element can be added several times, remove() removes its oldest occurrence.
+ */
+public class IndexedList<E> {
+  private static final class Node<E> {
+    private final E element;
+    private Node<E> previous;
+    private Node<E> next;
+    // Next occurrence of the same element.
+    private Node<E> same;
+
+    Node(E element) {
+      this.element = element;
+    }
+  }
 
-public class IndexedList<Е> {
-  private Map<Е, List<Integer>> indexes;
+  // Oldest occurrence of each element, only built with a second element.
+  private Map<E, Node<E>> nodes;
 
-  private final List<Е> elements;
+  private Node<E> first;
 
-  private boolean isSingle = true;
+  private Node<E> last;
 
-  public IndexedList(List<Е> elements) {
-    this.elements = elements;
+  private int size;
 
-    if (elements.size() > 1) {
-      initIndex(elements);
+  /**
+   * Read-only view of the elements.
+   */
+  private final class Elements extends AbstractList<E> {
+    @Override
+    public E get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      Node<E> node = first;
+      for (int i = 0; i < index; i++) {
+        node = node.next;
+      }
+      return node.element;
     }
-  }
-
-  private void initIndex(List<Е> newElements) {
-    indexes = new HashMap<Е, List<Integer>>();
 
-    isSingle = false;
+    @Override
+    public Iterator<E> iterator() {
+      return new Iterator<E>() {
+        private Node<E> next = first;
+
+        @Override
+        public boolean hasNext() {
+          return next != null;
+        }
+
+        @Override
+        public E next() {
+          if (next == null) {
+            throw new NoSuchElementException();
+          }
+          final E element = next.element;
+          next = next.next;
+          return element;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
 
-    int count = 0;
-    for (Е el : newElements) {
-      addIndex(el, count);
-      count += 1;
+    @Override
+    public int size() {
+      return size;
     }
   }
 
-  public List<Е> getElements() {
-    return elements;
+  public IndexedList(List<E> elements) {
+    for (E element : elements) {
+      add(element);
+    }
   }
 
-  public int size() {
-    return elements.size();
+  /**
+   * @return the elements in insertion order, a read-only view.
+   */
+  public List<E> getElements() {
+    return new Elements();
   }
 
-  public boolean contains(Е element) {
-    if (isSingle)
-      return elements.contains(element);
-
-    return indexes.containsKey(element);
+  public int size() {
+    return size;
   }
 
-  public void add(Е element) {
-    if (elements.size() == 1) {
-      initIndex(elements);
+  public boolean contains(E element) {
+    if (nodes == null) {
+      return first != null && equals(first.element, element);
     }
-
-    elements.add(element);
-
-    if (elements.size() > 1)
-      addIndex(element, elements.size()-1);
+    return nodes.containsKey(element);
   }
 
-  private void addIndex(Е element, int position) {
-    final List<Integer> list;
-    if (!indexes.containsKey(element)) {
-      list = new ArrayList<Integer>();
-      indexes.put(element, list);
+  public void add(E element) {
+    final Node<E> node = new Node<E>(element);
+    if (first == null) {
+      first = node;
+    } else {
+      if (nodes == null) {
+        nodes = new HashMap<E, Node<E>>();
+        nodes.put(first.element, first);
+      }
+      last.next = node;
+      node.previous = last;
     }
-    else
-      list = indexes.get(element);
-
-    list.add(position);
-  }
-
-  public void remove(Е element) {
-    if (isSingle) {
-      elements.remove(element);
-      return;
+    last = node;
+    size++;
+
+    if (nodes != null) {
+      final Node<E> oldest = nodes.get(element);
+      if (oldest == null) {
+        nodes.put(element, node);
+      } else {
+        Node<E> same = oldest;
+        while (same.same != null) {
+          same = same.same;
+        }
+        same.same = node;
+      }
     }
+  }
 
-    List<Integer> index = indexes.get(element);
-
-    if (index == null)
-      return;
-
-    if (index.size() != 0) {
-      int pos = index.get(0);
-      elements.remove(pos);
-      index.remove(0);
-
-      for(int i=pos; i<elements.size(); i++) {
-        Е key = elements.get(i);
-        decrementIndexes(indexes.get(key));
+  public void remove(E element) {
+    final Node<E> node;
+    if (nodes == null) {
+      if (first == null || !equals(first.element, element)) {
+        return;
+      }
+      node = first;
+    } else {
+      node = nodes.remove(element);
+      if (node == null) {
+        return;
+      }
+      if (node.same != null) {
+        nodes.put(node.same.element, node.same);
       }
     }
 
-    if (index.size() == 0) {
-      indexes.remove(element);
+    if (node.previous == null) {
+      first = node.next;
+    } else {
+      node.previous.next = node.next;
+    }
+    if (node.next == null) {
+      last = node.previous;
+    } else {
+      node.next.previous = node.previous;
     }
+    size--;
   }
 
-  private void decrementIndexes(List<Integer> index) {
-    for (int i = 0; i < index.size(); i++) {
-      index.set(i, index.get(i) - 1);
-    }
+  private static boolean equals(Object o1, Object o2) {
+    return o1 == null ? o2 == null : o1.equals(o2);
   }
 }
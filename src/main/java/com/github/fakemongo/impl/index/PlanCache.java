@@ -0,0 +1,147 @@
+package com.github.fakemongo.impl.index;
+
+import com.github.fakemongo.impl.Util;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plans of the queries of a collection, by shape of query : the fields and the operators of the query, without the values.
+ * <p/>
+ * A plan is the indexes which can be used by the queries of a shape, the choice between them still depends on the values.
+ * Must be cleared when an index is created or dropped.
+ * <p/>
+ * Thread Safe.
+ */
+public class PlanCache {
+  // The cache is emptied beyond : an application has few shapes of queries.
+  static final int MAX_SHAPES = 5000;
+
+  private final ConcurrentMap<String, Plan> plans = new ConcurrentHashMap<String, Plan>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private static final class Plan {
+    private final DBObject query;
+    private final List<IndexAbstract> indexes;
+    private final AtomicLong hits = new AtomicLong();
+
+    Plan(DBObject query, List<IndexAbstract> indexes) {
+      this.query = query;
+      this.indexes = indexes;
+    }
+  }
+
+  /**
+   * @return the indexes usable by the query, null if the shape of the query is not in the cache.
+   */
+  public List<IndexAbstract> get(DBObject query) {
+    final Plan plan = plans.get(shape(query));
+    if (plan == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    plan.hits.incrementAndGet();
+    return plan.indexes;
+  }
+
+  /**
+   * Keep the indexes usable by the queries of the shape of this query.
+   *
+   * @return the indexes.
+   */
+  public List<IndexAbstract> put(DBObject query, List<IndexAbstract> indexes) {
+    if (plans.size() >= MAX_SHAPES) {
+      plans.clear();
+    }
+    final List<IndexAbstract> planIndexes = Collections.unmodifiableList(new ArrayList<IndexAbstract>(indexes));
+    plans.put(shape(query), new Plan(Util.clone(query), planIndexes));
+    return planIndexes;
+  }
+
+  public void clear() {
+    plans.clear();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Plans in the cache.
+   *
+   * @param query only the plan of the shape of this query, null for all the plans.
+   * @return a list of { shape, query, indexes, hits }.
+   */
+  public List<DBObject> list(DBObject query) {
+    final List<DBObject> result = new ArrayList<DBObject>();
+    final String queryShape = query == null ? null : shape(query);
+    for (String shape : plans.keySet()) {
+      final Plan plan = plans.get(shape);
+      if (plan == null || (queryShape != null && !queryShape.equals(shape))) {
+        continue;
+      }
+      final BasicDBList indexNames = new BasicDBList();
+      for (IndexAbstract index : plan.indexes) {
+        indexNames.add(index.getName());
+      }
+      result.add(new BasicDBObject("shape", shape).append("query", plan.query).append("indexes", indexNames)
+          .append("hits", plan.hits.get()));
+    }
+    return result;
+  }
+
+  /**
+   * Shape of a query : { a : 1, b : { $in : [ 1, 2 ] } } and { a : 5, b : { $in : [ 3 ] } } have the same shape.
+   * The values are only distinguished as seen by the indexes : null, bounding the index, or not.
+   */
+  static String shape(DBObject query) {
+    final StringBuilder shape = new StringBuilder();
+    appendShape(shape, query);
+    return shape.toString();
+  }
+
+  private static void appendShape(StringBuilder shape, Object value) {
+    if (value == null) {
+      shape.append("null");
+    } else if (value instanceof List) {
+      // The scalars of a list only count as a whole, for a $in.
+      shape.append('[');
+      boolean bounds = true, scalars = false;
+      for (Object element : (List) value) {
+        if (element instanceof DBObject) {
+          appendShape(shape, element);
+          shape.append(',');
+        } else {
+          scalars = true;
+          bounds &= IndexAbstract.isBound(element);
+        }
+      }
+      if (scalars) {
+        shape.append(bounds ? "1" : "?");
+      }
+      shape.append(']');
+    } else if (value instanceof DBObject) {
+      shape.append('{');
+      for (String key : ((DBObject) value).keySet()) {
+        shape.append(key).append(':');
+        appendShape(shape, ((DBObject) value).get(key));
+        shape.append(',');
+      }
+      shape.append('}');
+    } else {
+      shape.append(IndexAbstract.isBound(value) ? "1" : "?");
+    }
+  }
+}
@@ -267,6 +267,15 @@ public class FongoDB extends DB {
       return runFindAndModify(cmd, "findandmodify");
     } else if (cmd.containsField("ping")) {
       return okResult();
+    } else if (cmd.containsField("currentOp")) {
+      // Operations of the whole server.
+      final BasicDBList inprog = new BasicDBList();
+      for (DB db : fongo.getUsedDatabases()) {
+        inprog.addAll(((FongoDB) db).currentOps());
+      }
+      CommandResult okResult = okResult();
+      okResult.put("inprog", inprog);
+      return okResult;
     } else if (cmd.containsField("validate")) {
       return okResult();
     } else if (cmd.containsField("buildInfo") || cmd.containsField("buildinfo")) {
@@ -500,10 +509,22 @@ public class FongoDB extends DB {
     return "FongoDB." + this.getName();
   }
 
+  /**
+   * @return the operations in progress on the collections of the database.
+   */
+  List<DBObject> currentOps() {
+    final List<DBObject> ops = new ArrayList<DBObject>();
+    for (FongoDBCollection collection : collMap.values()) {
+      ops.addAll(collection.currentOps());
+    }
+    return ops;
+  }
+
   synchronized void removeCollection(FongoDBCollection collection) {
     this.collMap.remove(collection.getName());
     this.getCollection(SYSTEM_NAMESPACES).remove(new BasicDBObject("name", collection.getFullName()));
     this.namespaceDeclared.remove(collection.getFullName());
+    this.fongo.killCursors(collection.getFullName());
   }
 
   void addCollection(FongoDBCollection collection) {
@@ -572,9 +593,7 @@ public class FongoDB extends DB {
 
     List<DBObject> documentsToInsert = (List<DBObject>) cmd.get("documents");
 
-    for (DBObject document : documentsToInsert) {
-      collection.insert(document);
-    }
+    collection.insert(documentsToInsert);
 
     final CommandResult commandResult = okResult();
     commandResult.put("ok", 1);
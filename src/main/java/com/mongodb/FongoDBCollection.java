@@ -12,6 +12,7 @@ import com.github.fakemongo.impl.geo.GeoUtil;
 import com.github.fakemongo.impl.index.GeoIndex;
 import com.github.fakemongo.impl.index.IndexAbstract;
 import com.github.fakemongo.impl.index.IndexFactory;
+import com.github.fakemongo.impl.index.PlanCache;
 import com.github.fakemongo.impl.text.TextSearch;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
@@ -19,14 +20,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.bson.BSON;
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
@@ -63,14 +71,26 @@ public class FongoDBCollection extends DBCollection {
 
   private static final String ID_NAME_INDEX = "_id_";
   private static final String SYSTEM_INDEXES_COLL_NAME = "system.indexes";
+  // Below, filtering the objects of the best index costs less than reading a second index.
+  private static final long INTERSECTION_MIN_OBJECTS = 100;
   private final FongoDB fongoDb;
   private final ExpressionParser expressionParser;
   private final UpdateEngine updateEngine;
   private final boolean nonIdCollection;
   private final ExpressionParser.ObjectComparator objectComparator;
+  // Finds, counts and distincts share the read lock, everything modifying the indexes takes the write lock.
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
   // Fields/Index
   private final List<IndexAbstract> indexes = new ArrayList<IndexAbstract>();
+  // Background builds of indexes, not yet in the indexes.
+  private final List<IndexBuild> indexBuilds = new ArrayList<IndexBuild>();
+  // Signaled when a background build ends.
+  private final Condition indexBuildEnded = lock.writeLock().newCondition();
+  // Indexes usable by a shape of query : must be cleared when the indexes change.
+  private final PlanCache planCache = new PlanCache();
   private final IndexAbstract _idIndex;
+  // Documents of _idIndex for the reads, rebuilt after a write.
+  private volatile List<DBObject> documentsSnapshot;
   private final boolean validateOnInsert;
 
   private final String SYSTEM_ELEMENT = "system.";
@@ -84,17 +104,17 @@ public class FongoDBCollection extends DBCollection {
     this.fongoDb = db;
     this.validateOnInsert = validateOnInsert;
     this.nonIdCollection = name.startsWith(SYSTEM_ELEMENT);
-    this.expressionParser = new ExpressionParser();
-    this.updateEngine = new UpdateEngine();
+    this.expressionParser = new ExpressionParser(db.fongo.getOperatorRegistry());
+    this.updateEngine = new UpdateEngine(expressionParser);
     this.objectComparator = expressionParser.buildObjectComparator(true);
-    this._idIndex = IndexFactory.create(ID_FIELD_NAME, new BasicDBObject(ID_FIELD_NAME, 1), !idIsNotUniq, false);  // _id should never be sparse
+    this._idIndex = IndexFactory.create(ID_FIELD_NAME, new BasicDBObject(ID_FIELD_NAME, 1), !idIsNotUniq, false, expressionParser);  // _id should never be sparse
     this.indexes.add(_idIndex);
     if (!this.nonIdCollection) {
       this.createIndex(new BasicDBObject(ID_FIELD_NAME, 1), new BasicDBObject("name", ID_NAME_INDEX));
     }
   }
 
-  private synchronized WriteResult updateResult(int updateCount, boolean updatedExisting, final Object upsertedId) {
+  private WriteResult updateResult(int updateCount, boolean updatedExisting, final Object upsertedId) {
     return new WriteResult(updateCount, updatedExisting, upsertedId);
   }
 
@@ -111,32 +131,147 @@ public class FongoDBCollection extends DBCollection {
   }
 
   @Override
-  public synchronized WriteResult insert(final List<? extends DBObject> documents, final InsertOptions insertOptions) {
-    WriteConcern writeConcern = insertOptions.getWriteConcern() != null ? insertOptions.getWriteConcern() : getWriteConcern();
-    for (final DBObject obj : documents) {
-      DBObject cloned = filterLists(Util.cloneIdFirst(encodeDecode(obj, insertOptions.getDbEncoder())));
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("insert: " + cloned);
+  public WriteResult insert(final List<? extends DBObject> documents, final InsertOptions insertOptions) {
+    lock.writeLock().lock();
+    try {
+      WriteConcern writeConcern = insertOptions.getWriteConcern() != null ? insertOptions.getWriteConcern() : getWriteConcern();
+      final Map<Integer, WriteConcernException> errors = insertBatch(documents, insertOptions.getDbEncoder(), writeConcern, true);
+      if (!errors.isEmpty()) {
+        throw errors.values().iterator().next();
       }
-      ObjectId id = putIdIfNotPresent(cloned);
-      // Save the id field in the caller.
-      if (!(obj instanceof LazyDBObject) && obj.get(ID_FIELD_NAME) == null) {
-        obj.put(ID_FIELD_NAME, Util.clone(id));
+//    Don't know why, but there is not more number of inserted results...
+//    return new WriteResult(insertResult(0), concern);
+      if (!writeConcern.isAcknowledged()) {
+        return WriteResult.unacknowledged();
       }
+      return new WriteResult(documents.size(), false, null);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Insert of a batch of documents, like an insert of each document : the documents are validated, then checked for
+   * uniqueness against the indexes and the previous documents of the batch, then added to each index at once (see
+   * {@link IndexAbstract#addBatch(List)}).
+   * <p/>
+   * Must be called with the write lock. The documents before an invalid document are inserted, then the error is thrown.
+   *
+   * @param ordered true to stop at the first duplicate key, false to skip the documents with a duplicate key.
+   * @return the duplicate key errors by position of the document in the batch, empty without acknowledgement.
+   */
+  private Map<Integer, WriteConcernException> insertBatch(List<? extends DBObject> documents, DBEncoder encoder,
+                                                          WriteConcern writeConcern, boolean ordered) {
+    final List<DBObject> objects = new ArrayList<DBObject>(documents.size());
+    RuntimeException failure = null;
+    try {
+      for (final DBObject obj : documents) {
+        DBObject cloned = filterLists(Util.cloneIdFirst(encodeDecode(obj, encoder)));
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("insert: " + cloned);
+        }
+        ObjectId id = putIdIfNotPresent(cloned);
+        // Save the id field in the caller.
+        if (!(obj instanceof LazyDBObject) && obj.get(ID_FIELD_NAME) == null) {
+          obj.put(ID_FIELD_NAME, Util.clone(id));
+        }
 
-      if (!this.getName().equalsIgnoreCase(SYSTEM_INDEXES_COLL_NAME) && validateOnInsert) {
-        // validate objects for regular collections (exclude system indexes which can support . their keys and possibly have other discrepancies)
-        _checkObject(obj, false, false);
+        if (!this.getName().equalsIgnoreCase(SYSTEM_INDEXES_COLL_NAME) && validateOnInsert) {
+          // validate objects for regular collections (exclude system indexes which can support . their keys and possibly have other discrepancies)
+          _checkObject(obj, false, false);
+        }
+        objects.add(cloned);
       }
+    } catch (RuntimeException e) {
+      failure = e;
+    }
 
-      putSizeCheck(cloned, writeConcern);
+    final Map<Integer, WriteConcernException> errors = new LinkedHashMap<Integer, WriteConcernException>();
+    boolean byDocument = false;
+    for (IndexAbstract index : indexes) {
+      // The geo and hashed indexes check the documents when they are added.
+      byDocument |= index.isGeoIndex() || index.isHashedIndex();
     }
-//    Don't know why, but there is not more number of inserted results...
-//    return new WriteResult(insertResult(0), concern);
-    if (!writeConcern.isAcknowledged()) {
-      return WriteResult.unacknowledged();
+    if (byDocument) {
+      for (int i = 0; i < objects.size(); i++) {
+        try {
+          putSizeCheck(objects.get(i), writeConcern);
+        } catch (WriteConcernException e) {
+          errors.put(i, e);
+          if (ordered) {
+            return errors;
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return errors;
     }
-    return new WriteResult(documents.size(), false, null);
+
+    // Uniqueness, in the order of the batch.
+    final List<IndexAbstract> uniqueIndexes = new ArrayList<IndexAbstract>();
+    final List<Set> batchKeys = new ArrayList<Set>();
+    for (IndexAbstract index : indexes) {
+      if (index.isUnique()) {
+        uniqueIndexes.add(index);
+        batchKeys.add(index.newKeySet());
+      }
+    }
+    final int maxDocuments = fongoDb.fongo.getMaxDocumentsPerCollection();
+    final List<DBObject> added = new ArrayList<DBObject>(objects.size());
+    for (int i = 0; i < objects.size(); i++) {
+      if (maxDocuments > 0 && _idIndex.size() + added.size() >= maxDocuments) {
+        failure = new FongoException("Whoa, hold up there.  This Fongo is configured for " + maxDocuments + " items per collection max");
+        break;
+      }
+      final DBObject object = objects.get(i);
+      List<List<Object>> error = Collections.emptyList();
+      int u = 0;
+      for (; u < uniqueIndexes.size() && error.isEmpty(); u++) {
+        //noinspection unchecked
+        error = uniqueIndexes.get(u).checkAdd(object, batchKeys.get(u));
+      }
+      if (!error.isEmpty()) {
+        if (enforceDuplicates(writeConcern)) {
+          errors.put(i, fongoDb.duplicateKeyException(11000, "E11000 duplicate key error index: " + this.getFullName() + "." + uniqueIndexes.get(u - 1).getName() + "  dup key : {" + error + " }"));
+          if (ordered) {
+            break;
+          }
+        }
+        continue; // silently ignore.
+      }
+      for (u = 0; u < uniqueIndexes.size(); u++) {
+        //noinspection unchecked
+        uniqueIndexes.get(u).addKeys(object, batchKeys.get(u));
+      }
+      // The objects already have their _id first, unless it has been generated.
+      added.add(ID_FIELD_NAME.equals(object.keySet().iterator().next()) ? object : Util.cloneIdFirst(object));
+    }
+
+    if (!added.isEmpty()) {
+      documentsSnapshot = null;
+      for (IndexBuild build : indexBuilds) {
+        for (DBObject object : added) {
+          build.logWrite(object, null, false);
+        }
+      }
+      for (final IndexAbstract index : indexes) {
+        final List<DBObject> indexed = new ArrayList<DBObject>(added.size());
+        for (DBObject object : added) {
+          if (index.canIndex(object)) {
+            indexed.add(object);
+          }
+        }
+        //noinspection unchecked
+        index.addBatch(indexed);
+      }
+      this.fongoDb.addCollection(this);
+    }
+    if (failure != null && (!ordered || errors.isEmpty())) {
+      throw failure;
+    }
+    return errors;
   }
 
   boolean enforceDuplicates(WriteConcern concern) {
@@ -159,8 +294,9 @@ public class FongoDBCollection extends DBCollection {
   }
 
   public void putSizeCheck(DBObject obj, WriteConcern concern) {
-    if (_idIndex.size() > 100000) {
-      throw new FongoException("Whoa, hold up there.  Fongo's designed for lightweight testing.  100,000 items per collection max");
+    final int maxDocuments = fongoDb.fongo.getMaxDocumentsPerCollection();
+    if (maxDocuments > 0 && _idIndex.size() >= maxDocuments) {
+      throw new FongoException("Whoa, hold up there.  This Fongo is configured for " + maxDocuments + " items per collection max");
     }
 
     addToIndexes(obj, null, concern);
@@ -240,34 +376,40 @@ public class FongoDBCollection extends DBCollection {
   }
 
 
-  protected synchronized void fInsert(DBObject obj, WriteConcern concern) {
-    putIdIfNotPresent(obj);
-    putSizeCheck(obj, concern);
+  protected void fInsert(DBObject obj, WriteConcern concern) {
+    lock.writeLock().lock();
+    try {
+      putIdIfNotPresent(obj);
+      putSizeCheck(obj, concern);
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
 
   @Override
-  public synchronized WriteResult update(DBObject q, DBObject o, boolean upsert, boolean multi, WriteConcern concern,
-                                         DBEncoder encoder) throws MongoException {
-
-    q = filterLists(q);
-    o = filterLists(o);
+  public WriteResult update(DBObject q, DBObject o, boolean upsert, boolean multi, WriteConcern concern,
+                            DBEncoder encoder) throws MongoException {
+    lock.writeLock().lock();
+    try {
+      q = filterLists(q);
+      o = filterLists(o);
 
-    if (o == null) {
-      throw new IllegalArgumentException("update can not be null");
-    }
+      if (o == null) {
+        throw new IllegalArgumentException("update can not be null");
+      }
 
-    if (concern == null) {
-      throw new IllegalArgumentException("Write concern can not be null");
-    }
+      if (concern == null) {
+        throw new IllegalArgumentException("Write concern can not be null");
+      }
 
-    if (!o.keySet().isEmpty()) {
-      // if 1st key doesn't start with $, then object will be inserted as is, need to check it
-      String key = o.keySet().iterator().next();
-      if (!key.startsWith("$")) {
-        _checkObject(o, false, false);
+      if (!o.keySet().isEmpty()) {
+        // if 1st key doesn't start with $, then object will be inserted as is, need to check it
+        String key = o.keySet().iterator().next();
+        if (!key.startsWith("$")) {
+          _checkObject(o, false, false);
+        }
       }
-    }
 
 //    if (multi) {
 //      try {
@@ -277,59 +419,62 @@ public class FongoDBCollection extends DBCollection {
 //      }
 //    }
 
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("update(" + q + ", " + o + ", " + upsert + ", " + multi + ")");
-    }
-
-    if (o.containsField(ID_FIELD_NAME) && q.containsField(ID_FIELD_NAME) && objectComparator.compare(o.get(ID_FIELD_NAME), q.get(ID_FIELD_NAME)) != 0) {
-      LOG.warn("can not change _id of a document query={}, document={}", q, o);
-      throw fongoDb.writeConcernException(16837, "can not change _id of a document " + ID_FIELD_NAME);
-    }
-
-    int updatedDocuments = 0;
-    boolean idOnlyUpdate = q.containsField(ID_FIELD_NAME) && q.keySet().size() == 1;
-    boolean updatedExisting = false;
-    Object upsertedId = null;
-
-    if (idOnlyUpdate && isNotUpdateCommand(o)) {
-      if (!o.containsField(ID_FIELD_NAME)) {
-        o.put(ID_FIELD_NAME, Util.clone(q.get(ID_FIELD_NAME)));
-      } else {
-        o.put(ID_FIELD_NAME, Util.clone(o.get(ID_FIELD_NAME)));
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("update(" + q + ", " + o + ", " + upsert + ", " + multi + ")");
       }
-      @SuppressWarnings("unchecked") Iterator<DBObject> oldObjects = _idIndex.retrieveObjects(q).iterator();
-      if (oldObjects.hasNext()) {
-        addToIndexes(Util.clone(o), oldObjects.hasNext() ? oldObjects.next() : null, concern);
-        updatedDocuments++;
-        updatedExisting = true;
+
+      if (o.containsField(ID_FIELD_NAME) && q.containsField(ID_FIELD_NAME) && objectComparator.compare(o.get(ID_FIELD_NAME), q.get(ID_FIELD_NAME)) != 0) {
+        LOG.warn("can not change _id of a document query={}, document={}", q, o);
+        throw fongoDb.writeConcernException(16837, "can not change _id of a document " + ID_FIELD_NAME);
       }
-    } else {
-      Filter filter = buildFilter(q);
-      for (DBObject obj : filterByIndexes(q)) {
-        if (filter.apply(obj)) {
-          DBObject newObject = Util.clone(obj);
-          updateEngine.doUpdate(newObject, o, q, false);
-          // Check for uniqueness (throw MongoException if error)
-          addToIndexes(newObject, obj, concern);
 
+      int updatedDocuments = 0;
+      boolean idOnlyUpdate = q.containsField(ID_FIELD_NAME) && q.keySet().size() == 1;
+      boolean updatedExisting = false;
+      Object upsertedId = null;
+
+      if (idOnlyUpdate && isNotUpdateCommand(o)) {
+        if (!o.containsField(ID_FIELD_NAME)) {
+          o.put(ID_FIELD_NAME, Util.clone(q.get(ID_FIELD_NAME)));
+        } else {
+          o.put(ID_FIELD_NAME, Util.clone(o.get(ID_FIELD_NAME)));
+        }
+        @SuppressWarnings("unchecked") Iterator<DBObject> oldObjects = _idIndex.retrieveObjects(q).iterator();
+        if (oldObjects.hasNext()) {
+          addToIndexes(Util.clone(o), oldObjects.hasNext() ? oldObjects.next() : null, concern);
           updatedDocuments++;
           updatedExisting = true;
-
-          if (!multi) {
-            break;
+        }
+      } else {
+        Filter filter = buildFilter(q);
+        for (DBObject obj : filterByIndexes(q)) {
+          if (filter.apply(obj)) {
+            DBObject newObject = Util.clone(obj);
+            updateEngine.doUpdate(newObject, o, q, false);
+            // Check for uniqueness (throw MongoException if error)
+            addToIndexes(newObject, obj, concern);
+
+            updatedDocuments++;
+            updatedExisting = true;
+
+            if (!multi) {
+              break;
+            }
           }
         }
       }
-    }
-    if (updatedDocuments == 0 && upsert) {
-      BasicDBObject newObject = createUpsertObject(q);
-      fInsert(updateEngine.doUpdate(newObject, o, q, true), concern);
+      if (updatedDocuments == 0 && upsert) {
+        BasicDBObject newObject = createUpsertObject(q);
+        fInsert(updateEngine.doUpdate(newObject, o, q, true), concern);
 
-      updatedDocuments++;
-      updatedExisting = false;
-      upsertedId = newObject.get(ID_FIELD_NAME);
+        updatedDocuments++;
+        updatedExisting = false;
+        upsertedId = newObject.get(ID_FIELD_NAME);
+      }
+      return updateResult(updatedDocuments, updatedExisting, upsertedId);
+    } finally {
+      lock.writeLock().unlock();
     }
-    return updateResult(updatedDocuments, updatedExisting, upsertedId);
   }
 
   protected DBObject _checkObject(DBObject o, boolean canBeNull, boolean query) {
@@ -473,96 +618,284 @@ public class FongoDBCollection extends DBCollection {
   }
 
   @Override
-  public synchronized WriteResult remove(DBObject o, WriteConcern concern, DBEncoder encoder) throws MongoException {
-    o = filterLists(o);
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("remove: " + o);
-    }
-    int updatedDocuments = 0;
-    Collection<DBObject> objectsByIndex = filterByIndexes(o);
-    Filter filter = buildFilter(o);
-    List<DBObject> ids = new ArrayList<DBObject>();
-    // Double pass, objectsByIndex can be not "objects"
-    for (DBObject object : objectsByIndex) {
-      if (filter.apply(object)) {
-        ids.add(object);
+  public WriteResult remove(DBObject o, WriteConcern concern, DBEncoder encoder) throws MongoException {
+    lock.writeLock().lock();
+    try {
+      o = filterLists(o);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("remove: " + o);
       }
+      int updatedDocuments = 0;
+      Collection<DBObject> objectsByIndex = filterByIndexes(o);
+      Filter filter = buildFilter(o);
+      List<DBObject> ids = new ArrayList<DBObject>();
+      // Double pass, objectsByIndex can be not "objects"
+      for (DBObject object : objectsByIndex) {
+        if (filter.apply(object)) {
+          ids.add(object);
+        }
+      }
+      // Real remove.
+      for (DBObject object : ids) {
+        LOG.debug("remove object : {}", object);
+        removeFromIndexes(object);
+        updatedDocuments++;
+      }
+      return updateResult(updatedDocuments, true, null);
+    } finally {
+      lock.writeLock().unlock();
     }
-    // Real remove.
-    for (DBObject object : ids) {
-      LOG.debug("remove object : {}", object);
-      removeFromIndexes(object);
-      updatedDocuments++;
-    }
-    return updateResult(updatedDocuments, true, null);
   }
 
   @Override
-  public synchronized void createIndex(final DBObject keys, final DBObject options) {
-    DBCollection indexColl = fongoDb.getCollection(SYSTEM_INDEXES_COLL_NAME);
-    BasicDBObject rec = new BasicDBObject();
-    rec.append("v", 1);
-    rec.append("key", keys);
-    rec.append("ns", nsName());
-    if (options != null && options.containsField("name")) {
-      rec.append("name", options.get("name"));
-    } else {
-      StringBuilder sb = new StringBuilder();
-      boolean firstLoop = true;
-      for (String keyName : keys.keySet()) {
-        if (!firstLoop) {
-          sb.append("_");
+  public void createIndex(final DBObject keys, final DBObject options) {
+    final IndexBuild build;
+    lock.writeLock().lock();
+    try {
+      DBCollection indexColl = fongoDb.getCollection(SYSTEM_INDEXES_COLL_NAME);
+      BasicDBObject rec = new BasicDBObject();
+      rec.append("v", 1);
+      rec.append("key", keys);
+      rec.append("ns", nsName());
+      if (options != null && options.containsField("name")) {
+        rec.append("name", options.get("name"));
+      } else {
+        StringBuilder sb = new StringBuilder();
+        boolean firstLoop = true;
+        for (String keyName : keys.keySet()) {
+          if (!firstLoop) {
+            sb.append("_");
+          }
+          sb.append(keyName).append("_").append(keys.get(keyName));
+          firstLoop = false;
         }
-        sb.append(keyName).append("_").append(keys.get(keyName));
-        firstLoop = false;
+        rec.append("name", sb.toString());
       }
-      rec.append("name", sb.toString());
-    }
-    // Ensure index doesn't exist.
-    final DBObject oldIndex = indexColl.findOne(rec);
-    if (oldIndex != null) {
-      for (Map.Entry<String, Object> entry : Util.entrySet(options)) {
-        if (!entry.getValue().equals(oldIndex.get(entry.getKey()))) {
-          fongoDb.notOkErrorResult(85, String.format("Index with name: %s already exists with different options", nsName())).throwOnError();
+      // Wait for the background build of the same index, the index is then published or in error.
+      while (sameIndexBuild(rec, options)) {
+        indexBuildEnded.awaitUninterruptibly();
+      }
+      // Ensure index doesn't exist.
+      final DBObject oldIndex = indexColl.findOne(rec);
+      if (oldIndex != null) {
+        for (Map.Entry<String, Object> entry : Util.entrySet(options)) {
+          if (!entry.getValue().equals(oldIndex.get(entry.getKey()))) {
+            fongoDb.notOkErrorResult(85, String.format("Index with name: %s already exists with different options", nsName())).throwOnError();
+          }
         }
+        return;
       }
-      return;
-    }
 
-    // Unique index must not be in previous find.
-    boolean unique = options != null && options.get("unique") != null && (Boolean.TRUE.equals(options.get("unique")) || "1".equals(options.get("unique")) || Integer.valueOf(1).equals(options.get("unique")));
-    if (unique) {
-      rec.append("unique", unique);
-    }
-    boolean sparse = options != null && options.get("sparse") != null && (Boolean.TRUE.equals(options.get("sparse")) || "1".equals(options.get("sparse")) || Integer.valueOf(1).equals(options.get("sparse")));
-    if (sparse) {
-      rec.append("sparse", sparse);
+      // Unique index must not be in previous find.
+      boolean unique = options != null && options.get("unique") != null && (Boolean.TRUE.equals(options.get("unique")) || "1".equals(options.get("unique")) || Integer.valueOf(1).equals(options.get("unique")));
+      if (unique) {
+        rec.append("unique", unique);
+      }
+      boolean sparse = options != null && options.get("sparse") != null && (Boolean.TRUE.equals(options.get("sparse")) || "1".equals(options.get("sparse")) || Integer.valueOf(1).equals(options.get("sparse")));
+      if (sparse) {
+        rec.append("sparse", sparse);
+      }
+
+      rec.putAll(options);
+
+      final boolean background = options != null && options.get("background") != null && (Boolean.TRUE.equals(options.get("background")) || "1".equals(options.get("background")) || Integer.valueOf(1).equals(options.get("background")));
+      try {
+        IndexAbstract index = IndexFactory.create((String) rec.get("name"), keys, unique, sparse, expressionParser);
+        if (background) {
+          // Built without the lock from the documents of now, the writes of the build are logged.
+          build = new IndexBuild(fongoDb.fongo.nextOpid(), index, rec, documents());
+          indexBuilds.add(build);
+        } else {
+          @SuppressWarnings("unchecked") List<List<Object>> notUnique = index.addAll(_idIndex.values());
+          publishIndex(index, rec, notUnique);
+          return;
+        }
+      } catch (MongoException me) {
+        fongoDb.errorResult(me.getCode(), me.getMessage()).throwOnError();
+        return;
+      }
+    } finally {
+      lock.writeLock().unlock();
     }
+    buildIndex(build);
+  }
 
-    rec.putAll(options);
+  /**
+   * Background build : the reads and the writes of the collection are not blocked while the index is built from the
+   * snapshot of the documents. The writes of the build are then applied to the index, and the index is published
+   * with the lock. Returns when the index is published, like the createIndexes command.
+   */
+  private void buildIndex(IndexBuild build) {
+    List<List<Object>> notUnique;
+    try {
+      //noinspection unchecked
+      notUnique = build.index.addAll(build.documents);
+    } catch (MongoException me) {
+      lock.writeLock().lock();
+      try {
+        indexBuilds.remove(build);
+        indexBuildEnded.signalAll();
+      } finally {
+        lock.writeLock().unlock();
+      }
+      fongoDb.errorResult(me.getCode(), me.getMessage()).throwOnError();
+      return;
+    }
 
+    lock.writeLock().lock();
     try {
-      IndexAbstract index = IndexFactory.create((String) rec.get("name"), keys, unique, sparse);
-      @SuppressWarnings("unchecked") List<List<Object>> notUnique = index.addAll(_idIndex.values());
-      if (!notUnique.isEmpty()) {
-        // Duplicate key.
-        if (enforceDuplicates(getWriteConcern())) {
-          fongoDb.notOkErrorResult(11000, "E11000 duplicate key error index: " + getFullName() + ".$" + rec.get("name") + "  dup key: { : " + notUnique + " }").throwOnError();
-        }
+      if (!indexBuilds.remove(build)) {
+        // Collection or index dropped during the build.
         return;
       }
-      indexes.add(index);
+      if (notUnique.isEmpty()) {
+        notUnique = build.applyWrites();
+      }
+      publishIndex(build.index, build.rec, notUnique);
     } catch (MongoException me) {
       fongoDb.errorResult(me.getCode(), me.getMessage()).throwOnError();
+    } finally {
+      indexBuildEnded.signalAll();
+      lock.writeLock().unlock();
     }
+  }
+
+  /**
+   * Must be called with the write lock.
+   *
+   * @return true if the same index is built in background. Another index with the same name or the same keys is rejected.
+   */
+  private boolean sameIndexBuild(DBObject rec, DBObject options) {
+    for (IndexBuild build : indexBuilds) {
+      final boolean sameName = build.rec.get("name").equals(rec.get("name"));
+      final boolean sameKeys = sameKeys((DBObject) build.rec.get("key"), (DBObject) rec.get("key"));
+      if (sameName || sameKeys) {
+        boolean sameOptions = sameName && sameKeys;
+        for (Map.Entry<String, Object> entry : Util.entrySet(options)) {
+          sameOptions &= entry.getValue().equals(build.rec.get(entry.getKey()));
+        }
+        if (!sameOptions) {
+          fongoDb.notOkErrorResult(85, String.format("Index with name: %s already in progress with different options", build.rec.get("name"))).throwOnError();
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true for the same fields in the same order, with the same directions (or types).
+   */
+  private static boolean sameKeys(DBObject keys, DBObject others) {
+    return new ArrayList<String>(keys.keySet()).equals(new ArrayList<String>(others.keySet()))
+        && keys.toMap().equals(others.toMap());
+  }
+
+  /**
+   * Must be called with the write lock.
+   *
+   * @param notUnique keys in error of the build of the index.
+   */
+  private void publishIndex(IndexAbstract index, DBObject rec, List<List<Object>> notUnique) {
+    if (!notUnique.isEmpty()) {
+      // Duplicate key.
+      if (enforceDuplicates(getWriteConcern())) {
+        fongoDb.notOkErrorResult(11000, "E11000 duplicate key error index: " + getFullName() + ".$" + rec.get("name") + "  dup key: { : " + notUnique + " }").throwOnError();
+      }
+      return;
+    }
+    indexes.add(index);
+    planCache.clear();
 
     // Add index if all fine.
-    indexColl.insert(rec);
+    fongoDb.getCollection(SYSTEM_INDEXES_COLL_NAME).insert(rec);
+  }
+
+  /**
+   * Operations in progress on the collection, like the "inprog" of the currentOp command : the background index builds.
+   */
+  public List<DBObject> currentOps() {
+    lock.readLock().lock();
+    try {
+      final List<DBObject> ops = new ArrayList<DBObject>();
+      for (IndexBuild build : indexBuilds) {
+        final long done = build.index.getBuildProgress();
+        final int total = build.documents.size();
+        final String progress = "Index Build (background) Index Build (background): " + done + "/" + total + " "
+            + (total == 0 ? 100 : done * 100 / total) + "%";
+        ops.add(new BasicDBObject("opid", build.opid)
+            .append("active", true)
+            .append("secs_running", (System.currentTimeMillis() - build.start) / 1000)
+            .append("op", "command")
+            .append("ns", getFullName())
+            .append("command", new BasicDBObject("createIndexes", getName()).append("indexes", Collections.singletonList(build.rec)))
+            .append("msg", progress)
+            .append("progress", new BasicDBObject("done", done).append("total", total)));
+      }
+      return ops;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Background build of an index : the snapshot of the documents to index, and the log of the writes since.
+   * The log is written and applied with the write lock.
+   */
+  private static final class IndexBuild {
+    private final int opid;
+    private final long start = System.currentTimeMillis();
+    private final IndexAbstract index;
+    private final DBObject rec;
+    private final List<DBObject> documents;
+    // Written objects, old objects of the updates, and the removes.
+    private final List<DBObject> objects = new ArrayList<DBObject>();
+    private final List<DBObject> oldObjects = new ArrayList<DBObject>();
+    private final List<Boolean> removes = new ArrayList<Boolean>();
+
+    IndexBuild(int opid, IndexAbstract index, DBObject rec, List<DBObject> documents) {
+      this.opid = opid;
+      this.index = index;
+      this.rec = rec;
+      this.documents = documents;
+    }
+
+    void logWrite(DBObject object, DBObject oldObject, boolean remove) {
+      objects.add(object);
+      oldObjects.add(oldObject);
+      removes.add(remove);
+    }
+
+    /**
+     * Apply the logged writes to the index, like addToIndexes() and removeFromIndexes().
+     *
+     * @return keys in error if uniqueness is not respected, empty collection otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    List<List<Object>> applyWrites() {
+      for (int i = 0; i < objects.size(); i++) {
+        final DBObject object = objects.get(i);
+        final DBObject oldObject = oldObjects.get(i);
+        if (removes.get(i)) {
+          if (index.canIndex(object)) {
+            index.remove(object);
+          }
+        } else if (index.canIndex(object)) {
+          final List<List<Object>> notUnique = index.addOrUpdate(object, oldObject);
+          if (!notUnique.isEmpty()) {
+            return notUnique;
+          }
+        } else if (index.canIndex(oldObject)) {
+          index.remove(oldObject);
+        }
+      }
+      return Collections.emptyList();
+    }
   }
 
   // @Override
   DBObject findOne(final DBObject pRef, final DBObject projection, final DBObject sort,
-                   final ReadPreference readPreference, final long maxTime, final TimeUnit maxTimeUnit) {
+      final ReadPreference readPreference, final long maxTime, final TimeUnit maxTimeUnit) {
     final DBObject query = new BasicDBObject("$query", pRef);
     if (sort != null) {
       query.put("$orderby", sort);
@@ -602,75 +935,233 @@ public class FongoDBCollection extends DBCollection {
    * <p/>
    * note: decoder, readPref, options are ignored
    */
-  synchronized List<DBObject> __find(final DBObject pRef, DBObject fields, int numToSkip, int batchSize, int limit,
-                                     int options, ReadPreference readPref, DBDecoder decoder) throws MongoException {
-    DBObject ref = filterLists(pRef == null ? new BasicDBObject() : pRef);
-    long maxScan = Long.MAX_VALUE;
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("find({}, {}).skip({}).limit({})", ref, fields, numToSkip, limit);
-      LOG.debug("the db {} looks like {}", this.getDB().getName(), _idIndex.size());
+  List<DBObject> __find(final DBObject pRef, DBObject fields, int numToSkip, int batchSize, int limit,
+                        int options, ReadPreference readPref, DBDecoder decoder) throws MongoException {
+    final List<DBObject> results = new ArrayList<DBObject>();
+    for (Iterator<DBObject> iterator = __findIterator(pRef, fields, numToSkip, limit); iterator.hasNext(); ) {
+      results.add(iterator.next());
     }
 
-    DBObject orderby = null;
-    if (ref.containsField("$orderby")) {
-      orderby = ExpressionParser.toDbObject(ref.get("$orderby"));
+    LOG.debug("found results {}", results);
+
+    return results;
+  }
+
+  /**
+   * Lazy find : the results are filtered, cloned and projected while iterating.
+   * The candidates are a snapshot taken at the call : writes after the call are not seen.
+   */
+  Iterator<DBObject> __findIterator(final DBObject pRef, DBObject fields, int numToSkip, int limit) throws MongoException {
+    final Lock queryLock = readLock(pRef);
+    queryLock.lock();
+    boolean locked = true;
+    try {
+      DBObject ref = filterLists(pRef == null ? new BasicDBObject() : pRef);
+      long maxScan = Long.MAX_VALUE;
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("find({}, {}).skip({}).limit({})", ref, fields, numToSkip, limit);
+        LOG.debug("the db {} looks like {}", this.getDB().getName(), _idIndex.size());
+      }
+
+      DBObject orderby = null;
+      if (ref.containsField("$orderby")) {
+        orderby = ExpressionParser.toDbObject(ref.get("$orderby"));
+      }
+      if (ref.containsField("$maxScan")) {
+        maxScan = ((Number) ref.get("$maxScan")).longValue();
+      }
+      if (ref.containsField("$query")) {
+        ref = ExpressionParser.toDbObject(ref.get("$query"));
+      }
+
+      Filter filter = buildFilter(ref);
+      int upperLimit = Integer.MAX_VALUE;
+      if (limit > 0) {
+        upperLimit = limit;
+      }
+
+      List objects = idsIn(ref);
+      final List<IndexAbstract> matchingIndexes = ref == null ? Collections.<IndexAbstract>emptyList() : searchIndexes(ref);
+      final IndexAbstract sortIndex = objects.isEmpty() && maxScan == Long.MAX_VALUE ? searchSortIndex(ref, orderby, matchingIndexes) : null;
+      final int skipLimit = (int) Math.min((long) Math.max(numToSkip, 0) + Math.max(limit, 0), Integer.MAX_VALUE);
+      final Iterator<DBObject> results;
+      final IndexAbstract coveringIndex = sortIndex != null ? sortIndex : searchCoveringIndex(ref, fields, orderby, matchingIndexes);
+      if (coveringIndex != null && isCovered(coveringIndex, ref, fields)) {
+        // The results are built from the keys of the index.
+        final List<DBObject> keys = coveringIndex.retrieveSortedKeys(ref, filter, sortIndex != null && sortIndex.sortDirection(ref, orderby) < 0, limit > 0 ? skipLimit : 0);
+        locked = !unlockForSnapshotRead(queryLock);
+        results = new FindIterator(keys.iterator(), ExpressionParser.AllFilter, fields, numToSkip, upperLimit, maxScan, true);
+      } else if (sortIndex != null) {
+        // The index gives the order of the sort : only the first skip + limit matching objects are read.
+        final List<DBObject> sortedObjects = sortIndex.retrieveSorted(ref, filter, sortIndex.sortDirection(ref, orderby) < 0, limit > 0 ? skipLimit : 0);
+        locked = !unlockForSnapshotRead(queryLock);
+        results = new FindIterator(sortedObjects.iterator(), ExpressionParser.AllFilter, fields, numToSkip, upperLimit, maxScan, false);
+      } else {
+        Collection<DBObject> objectsFromIndex = filterByIndexes(ref, matchingIndexes);
+        locked = !unlockForSnapshotRead(queryLock);
+        if (!objects.isEmpty()) {
+//        if (!(ref.get(ID_FIELD_NAME) instanceof DBObject)) {
+          // Special case : find({id:<val}) doesn't handle skip...
+          // But : find({_id:{$in:[1,2,3]}).skip(3) will return empty list.
+//          numToSkip = 0;
+//        }
+          if (orderby == null) {
+            orderby = new BasicDBObject(ID_FIELD_NAME, 1);
+          } else {
+            // Special case : if order by is wrong (field doesn't exist), the sort must be directed by _id.
+            objectsFromIndex = sortObjects(new BasicDBObject(ID_FIELD_NAME, 1), objectsFromIndex);
+          }
+        }
+        if (limit > 0 && maxScan == Long.MAX_VALUE && !Util.isDBObjectEmpty(orderby)) {
+          // Sort + limit : only the first skip + limit matching objects are sorted.
+          final List<DBObject> firstObjects = topK(orderby, filter, objectsFromIndex, skipLimit);
+          results = new FindIterator(firstObjects.iterator(), ExpressionParser.AllFilter, fields, numToSkip, upperLimit, maxScan, false);
+        } else {
+          Iterable<DBObject> objectsToSearch = sortObjects(orderby == null ? defaultOrderBy(ref) : orderby, objectsFromIndex);
+          results = new FindIterator(objectsToSearch.iterator(), filter, fields, numToSkip, upperLimit, maxScan, false);
+        }
+      }
+      if (!locked) {
+        return results;
+      }
+      // Objects of a geo index can change after the lock : read everything now.
+      final List<DBObject> resultList = new ArrayList<DBObject>();
+      while (results.hasNext()) {
+        resultList.add(results.next());
+      }
+      return resultList.iterator();
+    } finally {
+      if (locked) {
+        queryLock.unlock();
+      }
     }
-    if (ref.containsField("$maxScan")) {
-      maxScan = ((Number) ref.get("$maxScan")).longValue();
+  }
+
+  /**
+   * Filter, skip, limit, clone and project the candidates of a find, one by one.
+   */
+  private final class FindIterator implements Iterator<DBObject> {
+    private final Iterator<DBObject> candidates;
+    private final Filter filter;
+    private final DBObject projection;
+    // The candidates are keys of an index covering the query.
+    private final boolean covered;
+    private final int numToSkip;
+    private final int upperLimit;
+    private long maxScan;
+    private int seen = 0;
+    private int foundCount = 0;
+    private DBObject next;
+
+    FindIterator(Iterator<DBObject> candidates, Filter filter, DBObject projection, int numToSkip, int upperLimit, long maxScan, boolean covered) {
+      this.candidates = candidates;
+      this.filter = filter;
+      this.projection = projection;
+      this.covered = covered;
+      this.numToSkip = numToSkip;
+      this.upperLimit = upperLimit;
+      this.maxScan = maxScan;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && candidates.hasNext() && foundCount < upperLimit && maxScan-- > 0) {
+        DBObject dbo = candidates.next();
+        if (filter.apply(dbo)) {
+          if (seen++ >= numToSkip) {
+            foundCount++;
+            next = result(dbo);
+          }
+        }
+      }
+      return next != null;
     }
-    if (ref.containsField("$query")) {
-      ref = ExpressionParser.toDbObject(ref.get("$query"));
+
+    @Override
+    public DBObject next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final DBObject result = next;
+      next = null;
+      return result;
     }
 
-    Filter filter = buildFilter(ref);
-    int foundCount = 0;
-    int upperLimit = Integer.MAX_VALUE;
-    if (limit > 0) {
-      upperLimit = limit;
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
     }
 
-    Collection<DBObject> objectsFromIndex = filterByIndexes(ref);
-    List<DBObject> results = new ArrayList<DBObject>();
-    List objects = idsIn(ref);
-    if (!objects.isEmpty()) {
-//      if (!(ref.get(ID_FIELD_NAME) instanceof DBObject)) {
-      // Special case : find({id:<val}) doesn't handle skip...
-      // But : find({_id:{$in:[1,2,3]}).skip(3) will return empty list.
-//        numToSkip = 0;
-//      }
-      if (orderby == null) {
-        orderby = new BasicDBObject(ID_FIELD_NAME, 1);
-      } else {
-        // Special case : if order by is wrong (field doesn't exist), the sort must be directed by _id.
-        objectsFromIndex = sortObjects(new BasicDBObject(ID_FIELD_NAME, 1), objectsFromIndex);
-      }
-    }
-    int seen = 0;
-    Iterable<DBObject> objectsToSearch = sortObjects(orderby, objectsFromIndex);
-    for (Iterator<DBObject> iter = objectsToSearch.iterator();
-         iter.hasNext() && foundCount < upperLimit && maxScan-- > 0; ) {
-      DBObject dbo = iter.next();
-      if (filter.apply(dbo)) {
-        if (seen++ >= numToSkip) {
-          foundCount++;
-          DBObject clonedDbo = Util.clone(dbo);
-          if (nonIdCollection) {
-            clonedDbo.removeField(ID_FIELD_NAME);
-          }
-          clonedDbo.removeField(FONGO_SPECIAL_ORDER_BY);
-//          handleDBRef(clonedDbo);
-          results.add(clonedDbo);
-        }
+    /**
+     * @return the object to return, null if the projection removes it.
+     */
+    private DBObject result(DBObject dbo) {
+      if (covered) {
+        // Only the projected fields of the key are copied.
+        return replaceWithObjectClass(Util.clone(applyProjections(dbo, projection)));
+      }
+      DBObject clonedDbo = Util.clone(dbo);
+      if (nonIdCollection) {
+        clonedDbo.removeField(ID_FIELD_NAME);
       }
+      clonedDbo.removeField(FONGO_SPECIAL_ORDER_BY);
+//    handleDBRef(clonedDbo);
+      if (!Util.isDBObjectEmpty(projection)) {
+        clonedDbo = applyProjections(clonedDbo, projection);
+      }
+      return replaceWithObjectClass(clonedDbo);
     }
+  }
+
+  /**
+   * Lock for a read with this query.
+   * $near filters write the distance into the stored objects, these queries can't share the read lock.
+   */
+  private Lock readLock(DBObject query) {
+    return ExpressionParser.containsNearOperator(query) ? lock.writeLock() : lock.readLock();
+  }
 
-    if (!Util.isDBObjectEmpty(fields)) {
-      results = applyProjections(results, fields);
+  /**
+   * Release the read lock once the candidates of a read are taken.
+   * Stored documents are never modified (an update replaces them) : the rest of the read can filter, sort and clone
+   * them without the lock, on a point-in-time snapshot, and doesn't stall the writers.
+   * Except with a geo index : $near filters write the distance into its objects.
+   *
+   * @return true if the lock has been released.
+   */
+  private boolean unlockForSnapshotRead(Lock queryLock) {
+    if (queryLock == lock.readLock() && !hasGeoIndex()) {
+      queryLock.unlock();
+      return true;
     }
+    return false;
+  }
 
-    LOG.debug("found results {}", results);
+  /**
+   * @return true with a 2d or 2dsphere index. The hashed indexes never write into the stored objects.
+   */
+  private boolean hasGeoIndex() {
+    for (IndexAbstract index : indexes) {
+      if (index instanceof GeoIndex) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-    return replaceWithObjectClass(results);
+  /**
+   * Must be called with the lock.
+   *
+   * @return an immutable snapshot of the documents, shared by the reads until the next write.
+   */
+  private List<DBObject> documents() {
+    List<DBObject> documents = documentsSnapshot;
+    if (documents == null) {
+      //noinspection unchecked
+      documents = Collections.unmodifiableList(_idIndex.values());
+      documentsSnapshot = documents;
+    }
+    return documents;
   }
 
   /**
@@ -679,38 +1170,28 @@ public class FongoDBCollection extends DBCollection {
    * @return objects from "_id" if no index found, elsewhere the restricted values from an index.
    */
   private Collection<DBObject> filterByIndexes(DBObject ref) {
+    return filterByIndexes(ref, ref == null ? Collections.<IndexAbstract>emptyList() : searchIndexes(ref));
+  }
+
+  private Collection<DBObject> filterByIndexes(DBObject ref, List<IndexAbstract> matchingIndexes) {
     Collection<DBObject> dbObjectIterable = null;
     if (ref != null) {
-      IndexAbstract matchingIndex = searchIndex(ref);
-      if (matchingIndex != null) {
+      if (matchingIndexes.size() == 1) {
         //noinspection unchecked
-        dbObjectIterable = matchingIndex.retrieveObjects(ref);
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("restrict with index {}, from {} to {} elements", matchingIndex.getName(), _idIndex.size(), dbObjectIterable == null ? 0 : dbObjectIterable.size());
-        }
+        dbObjectIterable = matchingIndexes.get(0).retrieveObjects(ref);
+      } else if (matchingIndexes.size() == 2) {
+        dbObjectIterable = intersect(matchingIndexes.get(0).retrieveCandidates(ref), matchingIndexes.get(1).retrieveCandidates(ref));
+      }
+      if (LOG.isDebugEnabled() && !matchingIndexes.isEmpty()) {
+        LOG.debug("restrict with indexes {}, from {} to {} elements", matchingIndexes, _idIndex.size(), dbObjectIterable == null ? 0 : dbObjectIterable.size());
       }
     }
     if (dbObjectIterable == null) {
-      //noinspection unchecked
-      dbObjectIterable = _idIndex.values();
+      dbObjectIterable = documents();
     }
     return dbObjectIterable;
   }
 
-  private List<DBObject> applyProjections(List<DBObject> results, DBObject projection) {
-    final List<DBObject> ret = new ArrayList<DBObject>(results.size());
-
-    for (DBObject result : results) {
-      DBObject projectionMacthedResult = applyProjections(result, projection);
-      if (null != projectionMacthedResult) {
-        ret.add(projectionMacthedResult);
-      }
-    }
-
-    return ret;
-  }
-
-
   private static void addValuesAtPath(BasicDBObject ret, DBObject dbo, List<String> path, int startIndex) {
     String subKey = path.get(startIndex);
     Object value = dbo.get(subKey);
@@ -804,17 +1285,6 @@ public class FongoDBCollection extends DBCollection {
     return targetObject;
   }
 
-  private List<DBObject> replaceWithObjectClass(List<DBObject> resultObjects) {
-
-    final List<DBObject> targetObjects = new ArrayList<DBObject>(resultObjects.size());
-
-    for (final DBObject resultObject : resultObjects) {
-      targetObjects.add(replaceWithObjectClass(resultObject));
-    }
-
-    return targetObjects;
-  }
-
   /**
    * Returns a new instance of the object class.
    *
@@ -1030,130 +1500,258 @@ public class FongoDBCollection extends DBCollection {
   public Collection<DBObject> sortObjects(final DBObject orderby, final Collection<DBObject> objects) {
     Collection<DBObject> objectsToSearch = objects;
     if (orderby != null) {
-      final Set<String> orderbyKeySet = orderby.keySet();
-      if (!orderbyKeySet.isEmpty()) {
-        DBObject[] objectsToSort = objects.toArray(new DBObject[objects.size()]);
-
-        Arrays.sort(objectsToSort, new Comparator<DBObject>() {
-          @Override
-          public int compare(DBObject o1, DBObject o2) {
-            for (String sortKey : orderbyKeySet) {
-              final List<String> path = Util.split(sortKey);
-              int sortDirection = (Integer) orderby.get(sortKey);
-
-              List<Object> o1list = expressionParser.getEmbeddedValues(path, o1);
-              List<Object> o2list = expressionParser.getEmbeddedValues(path, o2);
-
-              int compareValue = expressionParser.compareLists(o1list, o2list) * sortDirection;
-              if (compareValue != 0) {
-                return compareValue;
-              }
-            }
-            return 0;
-          }
-        });
-        objectsToSearch = Arrays.asList(objectsToSort);
+      if (!orderby.keySet().isEmpty()) {
+        final ObjectSorter sorter = new ObjectSorter(orderby);
+        final SortedObject[] sorted = new SortedObject[objects.size()];
+        int position = 0;
+        for (DBObject object : objects) {
+          sorted[position] = sorter.sortedObject(object, position);
+          position++;
+        }
+        Arrays.sort(sorted, sorter);
+        final List<DBObject> result = new ArrayList<DBObject>(sorted.length);
+        for (SortedObject sortedObject : sorted) {
+          result.add(sortedObject.object);
+        }
+        objectsToSearch = result;
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("sorted objectsToSearch " + objectsToSearch);
       }
-    } else {
-      objectsToSearch = sortObjects(new BasicDBObject(FONGO_SPECIAL_ORDER_BY, 1), objects);
-    }
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("sorted objectsToSearch " + objectsToSearch);
     }
+    // Without orderby, the objects are already in natural order.
     return objectsToSearch;
   }
 
+  /**
+   * Sort the objects matching the filter and keep only the first <code>k</code> ones.
+   * A bounded heap in O(n log k) instead of sorting all the candidates.
+   * Equal objects keep the order of the candidates, like {@link #sortObjects(DBObject, Collection)}.
+   */
+  List<DBObject> topK(final DBObject orderby, final Filter filter, final Collection<DBObject> objects, final int k) {
+    final ObjectSorter sorter = new ObjectSorter(orderby);
+
+    // Head of the queue : the last of the first k objects.
+    final PriorityQueue<SortedObject> firstObjects = new PriorityQueue<SortedObject>(Math.max(1, Math.min(k, objects.size())), Collections.reverseOrder(sorter));
+    int position = 0;
+    for (DBObject object : objects) {
+      if (filter.apply(object)) {
+        final SortedObject sortedObject = sorter.sortedObject(object, position++);
+        if (firstObjects.size() < k) {
+          firstObjects.add(sortedObject);
+        } else if (sorter.compare(sortedObject, firstObjects.peek()) < 0) {
+          firstObjects.poll();
+          firstObjects.add(sortedObject);
+        }
+      }
+    }
+
+    final SortedObject[] sorted = firstObjects.toArray(new SortedObject[firstObjects.size()]);
+    Arrays.sort(sorted, sorter);
+    final List<DBObject> result = new ArrayList<DBObject>(sorted.length);
+    for (SortedObject sortedObject : sorted) {
+      result.add(sortedObject.object);
+    }
+    return result;
+  }
+
+  /**
+   * An object with its sort keys.
+   */
+  private static final class SortedObject {
+    private final DBObject object;
+    private final List<Object>[] keys;
+    private final int position;
+
+    SortedObject(DBObject object, List<Object>[] keys, int position) {
+      this.object = object;
+      this.keys = keys;
+      this.position = position;
+    }
+  }
+
+  /**
+   * Comparator of the objects of a sort : the sort keys are extracted once by object, not at each comparison.
+   * Equal objects keep their position.
+   */
+  private final class ObjectSorter implements Comparator<SortedObject> {
+    private final List<List<String>> paths;
+    private final int[] directions;
+
+    ObjectSorter(DBObject orderby) {
+      final Set<String> sortKeys = orderby.keySet();
+      this.paths = new ArrayList<List<String>>(sortKeys.size());
+      this.directions = new int[sortKeys.size()];
+      int i = 0;
+      for (String sortKey : sortKeys) {
+        paths.add(Util.split(sortKey));
+        directions[i++] = ((Number) orderby.get(sortKey)).intValue();
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    SortedObject sortedObject(DBObject object, int position) {
+      final List<Object>[] keys = new List[directions.length];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = expressionParser.getEmbeddedValues(paths.get(i), object);
+      }
+      return new SortedObject(object, keys, position);
+    }
+
+    @Override
+    public int compare(SortedObject o1, SortedObject o2) {
+      for (int i = 0; i < directions.length; i++) {
+        int compareValue = expressionParser.compareLists(o1.keys[i], o2.keys[i]) * directions[i];
+        if (compareValue != 0) {
+          return compareValue;
+        }
+      }
+      return o1.position < o2.position ? -1 : (o1.position == o2.position ? 0 : 1);
+    }
+  }
+
+  /**
+   * Order when the query has no $orderby : natural order, except for $near (nearest first).
+   *
+   * @return null for the natural order.
+   */
+  private DBObject defaultOrderBy(DBObject query) {
+    return ExpressionParser.containsNearOperator(query) ? new BasicDBObject(FONGO_SPECIAL_ORDER_BY, 1) : null;
+  }
+
   // @Override
-  public synchronized long getCount(final DBObject pQuery, final DBObject projection, final long limit, final long skip,
-                                    final ReadPreference readPreference, final long maxTime, final TimeUnit maxTimeUnit,
-                                    final BsonValue hint) {
-    final DBObject query = filterLists(pQuery);
-    Filter filter = query == null ? ExpressionParser.AllFilter : buildFilter(query);
-    long count = 0;
-    long upperLimit = Long.MAX_VALUE;
-    if (limit > 0) {
-      upperLimit = limit;
-    }
-    int seen = 0;
-    for (Iterator<DBObject> iter = filterByIndexes(query).iterator(); iter.hasNext() && count < upperLimit; ) {
-      DBObject value = iter.next();
-      if (filter.apply(value)) {
-        if (seen++ >= skip) {
-          count++;
+  public long getCount(final DBObject pQuery, final DBObject projection, final long limit, final long skip,
+                       final ReadPreference readPreference, final long maxTime, final TimeUnit maxTimeUnit,
+                       final BsonValue hint) {
+    final Lock queryLock = readLock(pQuery);
+    queryLock.lock();
+    boolean locked = true;
+    try {
+      final DBObject query = filterLists(pQuery);
+      Filter filter = query == null ? ExpressionParser.AllFilter : buildFilter(query);
+      long count = 0;
+      long upperLimit = Long.MAX_VALUE;
+      if (limit > 0) {
+        upperLimit = limit;
+      }
+      int seen = 0;
+      final Collection<DBObject> objectsFromIndex = filterByIndexes(query);
+      locked = !unlockForSnapshotRead(queryLock);
+      for (Iterator<DBObject> iter = objectsFromIndex.iterator(); iter.hasNext() && count < upperLimit; ) {
+        DBObject value = iter.next();
+        if (filter.apply(value)) {
+          if (seen++ >= skip) {
+            count++;
+          }
         }
       }
+      return count;
+    } finally {
+      if (locked) {
+        queryLock.unlock();
+      }
     }
-    return count;
   }
 
   @Override
-  public synchronized long getCount(DBObject query, DBObject fields, ReadPreference readPrefs) {
+  public long getCount(DBObject query, DBObject fields, ReadPreference readPrefs) {
     //as we're in memory we don't need to worry about readPrefs
     return getCount(query, fields, 0, 0);
   }
 
   @Override
-  public synchronized DBObject findAndModify(DBObject query, DBObject fields, DBObject sort, boolean remove, DBObject update, boolean returnNew, boolean upsert) {
-    LOG.debug("findAndModify({}, {}, {}, {}, {}, {}, {}", query, fields, sort, remove, update, returnNew, upsert);
-    query = filterLists(query);
-    update = filterLists(update);
-    Filter filter = buildFilter(query);
-
-    Iterable<DBObject> objectsToSearch = sortObjects(sort, filterByIndexes(query));
-    DBObject beforeObject = null;
-    DBObject afterObject = null;
-    for (DBObject dbo : objectsToSearch) {
-      if (filter.apply(dbo)) {
-        beforeObject = dbo;
-        if (!remove) {
-          afterObject = Util.clone(beforeObject);
-          updateEngine.doUpdate(afterObject, update, query, false);
-          addToIndexes(afterObject, beforeObject, getWriteConcern());
-          break;
-        } else {
-          remove(dbo);
-          return dbo;
+  public DBObject findAndModify(DBObject query, DBObject fields, DBObject sort, boolean remove, DBObject update, boolean returnNew, boolean upsert) {
+    lock.writeLock().lock();
+    try {
+      LOG.debug("findAndModify({}, {}, {}, {}, {}, {}, {}", query, fields, sort, remove, update, returnNew, upsert);
+      query = filterLists(query);
+      update = filterLists(update);
+      Filter filter = buildFilter(query);
+
+      final Iterable<DBObject> objectsToSearch;
+      final List<IndexAbstract> matchingIndexes = query == null ? Collections.<IndexAbstract>emptyList() : searchIndexes(query);
+      final IndexAbstract sortIndex = searchSortIndex(query, sort, matchingIndexes);
+      if (Util.isDBObjectEmpty(sort)) {
+        objectsToSearch = sortObjects(defaultOrderBy(query), filterByIndexes(query, matchingIndexes));
+      } else if (sortIndex != null) {
+        objectsToSearch = sortIndex.retrieveSorted(query, filter, sortIndex.sortDirection(query, sort) < 0, 1);
+      } else {
+        Collection<DBObject> objects = filterByIndexes(query, matchingIndexes);
+        if (!idsIn(query).isEmpty()) {
+          // Like find, the objects of an _id $in are sorted by _id first : the same object is chosen between equals.
+          objects = sortObjects(new BasicDBObject(ID_FIELD_NAME, 1), objects);
         }
+        // Only the first matching object is modified.
+        objectsToSearch = topK(sort, filter, objects, 1);
+      }
+      DBObject beforeObject = null;
+      DBObject afterObject = null;
+      for (DBObject dbo : objectsToSearch) {
+        if (filter.apply(dbo)) {
+          beforeObject = dbo;
+          if (!remove) {
+            afterObject = Util.clone(beforeObject);
+            updateEngine.doUpdate(afterObject, update, query, false);
+            addToIndexes(afterObject, beforeObject, getWriteConcern());
+            break;
+          } else {
+            remove(dbo);
+            return dbo;
+          }
+        }
+      }
+      if (beforeObject != null && !returnNew) {
+        return replaceWithObjectClass(applyProjections(beforeObject, fields));
+      }
+      if (beforeObject == null && upsert && !remove) {
+        beforeObject = new BasicDBObject();
+        afterObject = createUpsertObject(query);
+        fInsert(updateEngine.doUpdate(afterObject, update, query, upsert), getWriteConcern());
       }
-    }
-    if (beforeObject != null && !returnNew) {
-      return replaceWithObjectClass(applyProjections(beforeObject, fields));
-    }
-    if (beforeObject == null && upsert && !remove) {
-      beforeObject = new BasicDBObject();
-      afterObject = createUpsertObject(query);
-      fInsert(updateEngine.doUpdate(afterObject, update, query, upsert), getWriteConcern());
-    }
 
-    final DBObject resultObject;
-    if (returnNew) {
-      resultObject = applyProjections(afterObject, fields);
-    } else {
-      resultObject = applyProjections(beforeObject, fields);
-    }
+      final DBObject resultObject;
+      if (returnNew) {
+        resultObject = applyProjections(afterObject, fields);
+      } else {
+        resultObject = applyProjections(beforeObject, fields);
+      }
 
-    return replaceWithObjectClass(resultObject);
+      return replaceWithObjectClass(resultObject);
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   @Override
-  public synchronized List distinct(final String key, final DBObject pQuery, final ReadPreference readPreference) {
-    final DBObject query = filterLists(pQuery);
-    Set<Object> results = new LinkedHashSet<Object>();
-    Filter filter = buildFilter(query);
-    for (DBObject value : filterByIndexes(query)) {
-      if (filter.apply(value)) {
-        List<Object> keyValues = expressionParser.getEmbeddedValues(key, value);
-        for (Object keyValue : keyValues) {
-          if (keyValue instanceof List) {
-            results.addAll((List) keyValue);
-          } else {
-            results.add(keyValue);
+  public List distinct(final String key, final DBObject pQuery, final ReadPreference readPreference) {
+    final Lock queryLock = readLock(pQuery);
+    queryLock.lock();
+    boolean locked = true;
+    try {
+      final DBObject query = filterLists(pQuery);
+      Set<Object> results = new LinkedHashSet<Object>();
+      Filter filter = buildFilter(query);
+      final Collection<DBObject> objectsFromIndex = filterByIndexes(query);
+      locked = !unlockForSnapshotRead(queryLock);
+      for (DBObject value : objectsFromIndex) {
+        if (filter.apply(value)) {
+          List<Object> keyValues = expressionParser.getEmbeddedValues(key, value);
+          for (Object keyValue : keyValues) {
+            if (keyValue instanceof List) {
+              results.addAll((List) keyValue);
+            } else {
+              results.add(keyValue);
+            }
           }
         }
       }
+      //noinspection unchecked
+      return new ArrayList(results);
+    } finally {
+      if (locked) {
+        queryLock.unlock();
+      }
     }
-    //noinspection unchecked
-    return new ArrayList(results);
   }
 
   @Override
@@ -1178,10 +1776,82 @@ public class FongoDBCollection extends DBCollection {
                                             final WriteConcern aWriteConcern) {
     isTrueArgument("writes is not an empty list", !writeRequests.isEmpty());
     WriteConcern writeConcern = aWriteConcern == null ? getWriteConcern() : aWriteConcern;
-    int idx = 0;
     FongoBulkWriteCombiner combiner = new FongoBulkWriteCombiner(writeConcern);
 
-    for (WriteRequest req : writeRequests) {
+    for (List<Integer> group : groupWriteRequests(ordered, writeRequests)) {
+      // One lock for the requests of the group.
+      lock.writeLock().lock();
+      try {
+        if (!executeWriteRequests(ordered, writeRequests, group, writeConcern, combiner)) {
+          break;
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+    combiner.throwOnError(this.fongoDb.fongo.getServerAddress());
+    return combiner.getBulkWriteResult(writeConcern);
+  }
+
+  /**
+   * The positions of the requests, by group of requests of the same type : the consecutive requests for an ordered bulk,
+   * all the requests of a type for an unordered bulk (like the server, which can reorder them).
+   */
+  private static List<List<Integer>> groupWriteRequests(boolean ordered, List<WriteRequest> writeRequests) {
+    final List<List<Integer>> groups = new ArrayList<List<Integer>>();
+    final Map<Class, List<Integer>> groupsByType = new LinkedHashMap<Class, List<Integer>>();
+    Class previousType = null;
+    List<Integer> group = null;
+    for (int idx = 0; idx < writeRequests.size(); idx++) {
+      final Class type = writeRequests.get(idx).getClass();
+      if (ordered) {
+        if (type != previousType) {
+          group = new ArrayList<Integer>();
+          groups.add(group);
+          previousType = type;
+        }
+      } else {
+        group = groupsByType.get(type);
+        if (group == null) {
+          group = new ArrayList<Integer>();
+          groupsByType.put(type, group);
+          groups.add(group);
+        }
+      }
+      group.add(idx);
+    }
+    return groups;
+  }
+
+  /**
+   * Execute a group of requests of the same type, with the write lock. The inserts are inserted as a batch.
+   *
+   * @return false if the bulk must stop at this group : an ordered bulk stops at the first error.
+   */
+  private boolean executeWriteRequests(boolean ordered, List<WriteRequest> writeRequests, List<Integer> group,
+                                       WriteConcern writeConcern, FongoBulkWriteCombiner combiner) {
+    if (writeRequests.get(group.get(0)) instanceof InsertRequest) {
+      final List<DBObject> documents = new ArrayList<DBObject>(group.size());
+      for (int idx : group) {
+        documents.add(((InsertRequest) writeRequests.get(idx)).getDocument());
+      }
+      final Map<Integer, WriteConcernException> errors = insertBatch(documents, null, getWriteConcern(), ordered);
+      for (int i = 0; i < documents.size(); i++) {
+        final WriteConcernException e = errors.get(i);
+        if (e != null) {
+          combiner.addInsertError(group.get(i), e);
+          if (ordered) {
+            return false;
+          }
+        } else if (getWriteConcern().isAcknowledged()) {
+          combiner.addInsertResult(new WriteResult(1, false, null));
+        }
+      }
+      return true;
+    }
+
+    for (int idx : group) {
+      final WriteRequest req = writeRequests.get(idx);
       WriteResult wr;
       if (req instanceof ReplaceRequest) {
         ReplaceRequest r = (ReplaceRequest) req;
@@ -1199,24 +1869,11 @@ public class FongoDBCollection extends DBCollection {
         RemoveRequest r = (RemoveRequest) req;
         wr = remove(r.getQuery(), writeConcern, null);
         combiner.addRemoveResult(wr);
-      } else if (req instanceof InsertRequest) {
-        InsertRequest r = (InsertRequest) req;
-        try {
-          wr = insert(r.getDocument());
-          combiner.addInsertResult(wr);
-        } catch (WriteConcernException e) {
-          combiner.addInsertError(idx, e);
-          if (ordered) {
-            break;
-          }
-        }
       } else {
         throw new NotImplementedException();
       }
-      idx++;
     }
-    combiner.throwOnError(this.fongoDb.fongo.getServerAddress());
-    return combiner.getBulkWriteResult(writeConcern);
+    return true;
   }
 
   // @Override
@@ -1260,22 +1917,35 @@ public class FongoDBCollection extends DBCollection {
   }
 
 
-  protected synchronized void _dropIndex(String name) throws MongoException {
-    final DBCollection indexColl = fongoDb.getCollection("system.indexes");
-    final WriteResult wr = indexColl.remove(new BasicDBObject("name", name).append("ns", nsName()), WriteConcern.ACKNOWLEDGED);
-    boolean isDrop = wr.getN() == 1;
-    ListIterator<IndexAbstract> iterator = indexes.listIterator();
-
-    while (iterator.hasNext()) {
-      IndexAbstract index = iterator.next();
-      if (index.getName().equals(name)) {
-        iterator.remove();
-        isDrop = true;
-        break;
+  protected void _dropIndex(String name) throws MongoException {
+    lock.writeLock().lock();
+    try {
+      final DBCollection indexColl = fongoDb.getCollection("system.indexes");
+      final WriteResult wr = indexColl.remove(new BasicDBObject("name", name).append("ns", nsName()), WriteConcern.ACKNOWLEDGED);
+      boolean isDrop = wr.getN() == 1;
+      for (Iterator<IndexBuild> builds = indexBuilds.iterator(); builds.hasNext(); ) {
+        if (builds.next().index.getName().equals(name)) {
+          // Aborted : the build will not publish the index.
+          builds.remove();
+          isDrop = true;
+        }
       }
-    }
-    if (!isDrop) {
-      fongoDb.notOkErrorResult("index not found with name [" + name + "]").throwOnError();
+      ListIterator<IndexAbstract> iterator = indexes.listIterator();
+
+      while (iterator.hasNext()) {
+        IndexAbstract index = iterator.next();
+        if (index.getName().equals(name)) {
+          iterator.remove();
+          planCache.clear();
+          isDrop = true;
+          break;
+        }
+      }
+      if (!isDrop) {
+        fongoDb.notOkErrorResult("index not found with name [" + name + "]").throwOnError();
+      }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -1283,31 +1953,230 @@ public class FongoDBCollection extends DBCollection {
     return this.getDB().getName() + "." + this.getName();
   }
 
-  protected synchronized void _dropIndexes() {
-    final List<DBObject> indexes = fongoDb.getCollection("system.indexes").find(new BasicDBObject("ns", nsName())).toArray();
-    // Two step for no concurrent modification exception
-    for (final DBObject index : indexes) {
-      final String indexName = index.get("name").toString();
-      if (!ID_NAME_INDEX.equals(indexName)) {
-        dropIndexes(indexName);
+  protected void _dropIndexes() {
+    lock.writeLock().lock();
+    try {
+      final List<DBObject> indexes = fongoDb.getCollection("system.indexes").find(new BasicDBObject("ns", nsName())).toArray();
+      // Two step for no concurrent modification exception
+      for (final DBObject index : indexes) {
+        final String indexName = index.get("name").toString();
+        if (!ID_NAME_INDEX.equals(indexName)) {
+          dropIndexes(indexName);
+        }
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   @Override
   public void drop() {
-    _idIndex.clear();
+    lock.writeLock().lock();
+    try {
+      _idIndex.clear();
+      documentsSnapshot = null;
+      indexBuilds.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
     _dropIndexes(); // _idIndex must stay.
     fongoDb.removeCollection(this);
   }
 
+  /**
+   * Choose the indexes for a query.
+   * The index returning the fewest objects is used (the objects in the bounds of the query are counted), a compound
+   * index can be used for a query on its first field. When it still returns many objects, the objects of a second index
+   * as selective are intersected with its own.
+   * The indexes usable by the query are kept in the plan cache (see {@link #searchCandidateIndexes(DBObject)}).
+   *
+   * @return the indexes to use : none, one, or two to intersect.
+   */
+  private List<IndexAbstract> searchIndexes(DBObject query) {
+    List<IndexAbstract> candidates = planCache.get(query);
+    if (candidates == null) {
+      candidates = planCache.put(query, searchCandidateIndexes(query));
+    }
+    candidates = withoutMissingObjects(candidates, query);
+    if (candidates.size() <= 1) {
+      return candidates;
+    }
+
+    IndexAbstract best = null, second = null;
+    long bestEstimate = Long.MAX_VALUE, secondEstimate = Long.MAX_VALUE;
+    for (IndexAbstract index : candidates) {
+      // Only count what can change the choice.
+      final long estimate = index.estimate(query, secondEstimate);
+      if (best == null || estimate < bestEstimate || (estimate == bestEstimate && isMoreRestrictive(index, best))) {
+        second = best;
+        secondEstimate = bestEstimate;
+        best = index;
+        bestEstimate = estimate;
+      } else if (second == null || estimate < secondEstimate) {
+        second = index;
+        secondEstimate = estimate;
+      }
+    }
+    LOG.debug("searchIndexes() found index {} ({} objects) and {} ({} objects) for fields {}", best, bestEstimate, second, secondEstimate, query.keySet());
+
+    if (second != null && bestEstimate >= INTERSECTION_MIN_OBJECTS && secondEstimate <= 2 * bestEstimate
+        && !best.getFields().equals(second.getFields())) {
+      return Arrays.asList(best, second);
+    }
+    return Collections.singletonList(best);
+  }
+
+  /**
+   * The queries of the same shape can differ by their values ({a : null} and {a : 1}) : the candidates are checked for
+   * each query.
+   *
+   * @return the candidates with all the objects which can match the query (see {@link IndexAbstract#canMatchMissing(DBObject)}).
+   */
+  private static List<IndexAbstract> withoutMissingObjects(List<IndexAbstract> candidates, DBObject query) {
+    List<IndexAbstract> result = candidates;
+    for (IndexAbstract index : candidates) {
+      if (index.canMatchMissing(query)) {
+        if (result == candidates) {
+          result = new ArrayList<IndexAbstract>(candidates);
+        }
+        result.remove(index);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Search an ordered index giving the objects of the query in the order of the sort, to skip the sort.
+   * Only the index chosen for the query can be used, or an index containing all the objects when none is chosen.
+   *
+   * @param matchingIndexes indexes chosen for the query (see {@link #searchIndexes(DBObject)}).
+   * @return the index, or null.
+   */
+  private IndexAbstract searchSortIndex(DBObject query, DBObject orderBy, List<IndexAbstract> matchingIndexes) {
+    if (Util.isDBObjectEmpty(orderBy) || query == null || ExpressionParser.containsNearOperator(query)) {
+      return null;
+    }
+    if (!matchingIndexes.isEmpty()) {
+      final IndexAbstract index = matchingIndexes.get(0);
+      return index.sortDirection(query, orderBy) != 0 ? index : null;
+    }
+    for (IndexAbstract index : this.indexes) {
+      if (index.size() == _idIndex.size() && index.sortDirection(query, orderBy) != 0) {
+        return index;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Search the index chosen for a query, when it covers the query (see {@link #isCovered(IndexAbstract, DBObject, DBObject)}).
+   * Without sort only : the keys are read in the order of the index.
+   *
+   * @return the index, or null.
+   */
+  private IndexAbstract searchCoveringIndex(DBObject query, DBObject projection, DBObject orderBy, List<IndexAbstract> matchingIndexes) {
+    if (!Util.isDBObjectEmpty(orderBy) || matchingIndexes.isEmpty() || !idsIn(query).isEmpty()) {
+      return null;
+    }
+    final IndexAbstract index = matchingIndexes.get(0);
+    return isCovered(index, query, projection) ? index : null;
+  }
+
+  /**
+   * A query is covered by an index when its filter and its projection only use fields of the index : the results are
+   * built from the keys of the index, without reading nor cloning the objects.
+   * The _id must be excluded by the projection, unless it is a field of the index.
+   */
+  private boolean isCovered(IndexAbstract index, DBObject query, DBObject projection) {
+    if (index.isGeoIndex() || index.isHashedIndex() || index.isMultiKey() || Util.isDBObjectEmpty(projection) || nonIdCollection) {
+      return false;
+    }
+    final Set<String> fields = index.getFields();
+    for (String field : query.keySet()) {
+      if (!fields.contains(field)) {
+        return false;
+      }
+    }
+    boolean included = false, idExcluded = false;
+    for (String field : projection.keySet()) {
+      final Object value = projection.get(field);
+      final boolean include;
+      if (value instanceof Number) {
+        include = ((Number) value).intValue() > 0;
+      } else if (value instanceof Boolean) {
+        include = (Boolean) value;
+      } else {
+        return false;
+      }
+      if (ID_FIELD_NAME.equals(field) && !include) {
+        idExcluded = true;
+      } else if (!include || !fields.contains(field)) {
+        return false;
+      } else {
+        included = true;
+      }
+    }
+    return included && (idExcluded || fields.contains(ID_FIELD_NAME));
+  }
+
+  /**
+   * Indexes which can be used by the query, whatever its values : kept in the plan cache by shape of query.
+   * A geo index, or the index of a $near, is used alone.
+   */
+  private List<IndexAbstract> searchCandidateIndexes(DBObject query) {
+    final IndexAbstract legacyIndex = searchIndex(query);
+    if (legacyIndex != null && (legacyIndex.isGeoIndex() || ExpressionParser.containsNearOperator(query))) {
+      return Collections.singletonList(legacyIndex);
+    }
+
+    final List<IndexAbstract> candidates = new ArrayList<IndexAbstract>();
+    for (IndexAbstract index : this.indexes) {
+      if (!index.isGeoIndex() && (index.canHandle(query) || index.canHandlePrefix(query))) {
+        candidates.add(index);
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Plans of the plan cache of the collection, with its statistics.
+   *
+   * @param query only the plan of the shape of this query, null for all the plans.
+   * @return { plans : [ { shape, query, indexes, hits } ], hits, misses }
+   */
+  public DBObject planCacheListPlans(DBObject query) {
+    final BasicDBList plans = new BasicDBList();
+    plans.addAll(planCache.list(query));
+    return new BasicDBObject("plans", plans).append("hits", planCache.getHits()).append("misses", planCache.getMisses());
+  }
+
+  private static boolean isMoreRestrictive(IndexAbstract index, IndexAbstract other) {
+    return index.getFields().size() > other.getFields().size()
+        || (index.getFields().size() == other.getFields().size() && index.isUnique() && !other.isUnique());
+  }
+
+  /**
+   * @return the objects in both collections, in the order of the first.
+   */
+  private static Collection<DBObject> intersect(Collection<DBObject> objects, Collection<DBObject> others) {
+    final Set<DBObject> othersSet = Collections.newSetFromMap(new IdentityHashMap<DBObject, Boolean>(others.size()));
+    othersSet.addAll(others);
+    final List<DBObject> result = new ArrayList<DBObject>();
+    for (DBObject object : objects) {
+      if (othersSet.contains(object)) {
+        result.add(object);
+      }
+    }
+    return result;
+  }
+
   /**
    * Search the most restrictive index for query.
    *
    * @param query query for restriction
    * @return the most restrictive index, or null.
    */
-  private synchronized IndexAbstract searchIndex(DBObject query) {
+  private IndexAbstract searchIndex(DBObject query) {
     IndexAbstract result = null;
     int foundCommon = -1;
     Set<String> queryFields = query.keySet();
@@ -1331,7 +2200,7 @@ public class FongoDBCollection extends DBCollection {
    *
    * @return the geo index, or null.
    */
-  private synchronized IndexAbstract searchGeoIndex(boolean unique) {
+  private IndexAbstract searchGeoIndex(boolean unique) {
     IndexAbstract result = null;
     for (IndexAbstract index : indexes) {
       if (index.isGeoIndex()) {
@@ -1373,11 +2242,15 @@ public class FongoDBCollection extends DBCollection {
 
     //     Set<String> queryFields = object.keySet();
     final DBObject idFirst = Util.cloneIdFirst(object);
+    documentsSnapshot = null;
+    for (IndexBuild build : indexBuilds) {
+      build.logWrite(idFirst, oldObject, false);
+    }
     try {
       for (final IndexAbstract index : indexes) {
-        if (index.canHandle(object)) {
+        if (index.canIndex(object)) {
           index.addOrUpdate(idFirst, oldObject);
-        } else if (index.canHandle(oldObject))
+        } else if (index.canIndex(oldObject))
           // In case of update and removing a field, we must remove from the index.
           index.remove(oldObject);
       }
@@ -1393,35 +2266,55 @@ public class FongoDBCollection extends DBCollection {
    *
    * @param object object to remove.
    */
-  private synchronized void removeFromIndexes(DBObject object) {
+  private void removeFromIndexes(DBObject object) {
+    documentsSnapshot = null;
+    for (IndexBuild build : indexBuilds) {
+      build.logWrite(object, null, true);
+    }
     for (IndexAbstract index : indexes) {
-      if (index.canHandle(object)) {
+      if (index.canIndex(object)) {
         index.remove(object);
       }
     }
   }
 
-  public synchronized Collection<IndexAbstract> getIndexes() {
-    return Collections.unmodifiableList(indexes);
+  public Collection<IndexAbstract> getIndexes() {
+    lock.readLock().lock();
+    try {
+      // Copy : the caller can iterate while another thread create or drop an index.
+      return Collections.unmodifiableList(new ArrayList<IndexAbstract>(indexes));
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
-  public synchronized List<DBObject> geoNear(Coordinate near, DBObject query, Number limit, Number maxDistance, boolean spherical) {
-    IndexAbstract matchingIndex = searchGeoIndex(true);
-    if (matchingIndex == null) {
-      fongoDb.notOkErrorResult(-5, "no geo indices for geoNear").throwOnError();
-    }
-    //noinspection ConstantConditions
-    LOG.info("geoNear() near:{}, query:{}, limit:{}, maxDistance:{}, spherical:{}, use index:{}", near, query, limit, maxDistance, spherical, matchingIndex.getName());
+  public List<DBObject> geoNear(Coordinate near, DBObject query, Number limit, Number maxDistance, boolean spherical) {
+    lock.writeLock().lock();
+    try {
+      IndexAbstract matchingIndex = searchGeoIndex(true);
+      if (matchingIndex == null) {
+        fongoDb.notOkErrorResult(-5, "no geo indices for geoNear").throwOnError();
+      }
+      //noinspection ConstantConditions
+      LOG.info("geoNear() near:{}, query:{}, limit:{}, maxDistance:{}, spherical:{}, use index:{}", near, query, limit, maxDistance, spherical, matchingIndex.getName());
 
 //    List<LatLong> latLongs = GeoUtil.coordinate(Collections.<String>emptyList(), near);
-    Geometry geometry = GeoUtil.toGeometry(near);
-    return ((GeoIndex) matchingIndex).geoNear(query == null ? new BasicDBObject() : query, geometry, limit == null ? 100 : limit.intValue(), spherical);
+      Geometry geometry = GeoUtil.toGeometry(near);
+      return ((GeoIndex) matchingIndex).geoNear(query == null ? new BasicDBObject() : query, geometry, limit == null ? 100 : limit.intValue(), spherical);
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   //Text search Emulation see http://docs.mongodb.org/manual/tutorial/search-for-text/ for mongo
-  public synchronized DBObject text(String search, Number limit, DBObject project) {
-    TextSearch ts = new TextSearch(this);
-    return ts.findByTextSearch(search, project == null ? new BasicDBObject() : project, limit == null ? 100 : limit.intValue());
+  public DBObject text(String search, Number limit, DBObject project) {
+    lock.readLock().lock();
+    try {
+      TextSearch ts = new TextSearch(this);
+      return ts.findByTextSearch(search, project == null ? new BasicDBObject() : project, limit == null ? 100 : limit.intValue());
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   // TODO WDEL
@@ -1439,7 +2332,12 @@ public class FongoDBCollection extends DBCollection {
 
   @Override
   public long count() {
-    return _idIndex.size();
+    lock.readLock().lock();
+    try {
+      return _idIndex.size();
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   @Override
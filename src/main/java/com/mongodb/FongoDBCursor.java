@@ -26,8 +26,11 @@ public class FongoDBCursor extends DBCursor {
   private boolean closed;
 
   private DBObject currentObject;
-  private List<DBObject> objects = null;
+  // Results, read lazily.
   private Iterator<DBObject> iterator;
+  // Results already read by toArray() : only kept in "array" mode.
+  private List<DBObject> objects = null;
+  private int position;
 
   public FongoDBCursor(FongoDBCollection fongoDBCollection, DBObject query, DBObject projection) {
     this(fongoDBCollection, query, projection, new FindOptions(), new BasicDBObject(), null);
@@ -44,9 +47,7 @@ public class FongoDBCursor extends DBCursor {
   }
 
   private void fetch() {
-    if (this.objects == null) {
-      objects = new ArrayList<DBObject>();
-
+    if (this.iterator == null) {
       final DBObject q;
       if (this.query != null && this.query.containsField("$query")) {
         q = Util.clone(query);
@@ -57,9 +58,7 @@ public class FongoDBCursor extends DBCursor {
         q.put("$orderby", sort);
       }
       q.putAll(modifiers);
-      objects.addAll(dbCollection.__find(q, projection, this.findOptions.getSkip(), this.findOptions.getBatchSize(),
-          this.getLimit(), this.getOptions(), getReadPreference(), null));
-      iterator = objects.iterator();
+      iterator = dbCollection.__findIterator(q, projection, this.findOptions.getSkip(), this.getLimit());
     }
   }
 
@@ -79,6 +78,12 @@ public class FongoDBCursor extends DBCursor {
   @Override
   public synchronized List<DBObject> toArray(int max) {
     fetch();
+    if (objects == null) {
+      objects = new ArrayList<DBObject>();
+    }
+    while (objects.size() < max && iterator.hasNext()) {
+      objects.add(iterator.next());
+    }
     return objects;
   }
 
@@ -88,7 +93,7 @@ public class FongoDBCursor extends DBCursor {
       throw new IllegalStateException("Cursor has been closed");
     }
     fetch();
-    return iterator.hasNext();
+    return (objects != null && position < objects.size()) || iterator.hasNext();
   }
 
   @Override
@@ -97,8 +102,17 @@ public class FongoDBCursor extends DBCursor {
       throw new IllegalStateException("Cursor has been closed");
     }
     fetch();
+    final DBObject next;
+    if (objects == null) {
+      next = iterator.next();
+    } else {
+      if (position == objects.size()) {
+        objects.add(iterator.next());
+      }
+      next = objects.get(position++);
+    }
     this.numSeen++;
-    return currentObject(iterator.next());
+    return currentObject(next);
   }
 
   @Override
@@ -116,8 +130,7 @@ public class FongoDBCursor extends DBCursor {
 
   @Override
   public int length() {
-    fetch();
-    return this.objects.size();
+    return toArray().size();
   }
 
   /**
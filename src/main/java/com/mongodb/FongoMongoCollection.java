@@ -76,7 +76,17 @@ public class FongoMongoCollection<TDocument> extends MongoCollectionImpl<TDocume
   public List<String> createIndexes(List<IndexModel> indexes) {
     ArrayList<String> names = new ArrayList<String>(indexes.size());
     for (IndexModel indexModel : indexes) {
-      this.dbCollection.createIndex(dbObject(indexModel.getKeys()), indexModel.getOptions().getName(), indexModel.getOptions().isUnique());
+      final DBObject options = new BasicDBObject();
+      if (indexModel.getOptions().getName() != null && indexModel.getOptions().getName().length() > 0) {
+        options.put("name", indexModel.getOptions().getName());
+      }
+      if (indexModel.getOptions().isUnique()) {
+        options.put("unique", true);
+      }
+      if (indexModel.getOptions().isBackground()) {
+        options.put("background", true);
+      }
+      this.dbCollection.createIndex(dbObject(indexModel.getKeys()), options);
       names.add(indexModel.getOptions().getName());
     }
 //    return super.createIndexes(indexes);
@@ -9,6 +9,7 @@ import com.mongodb.client.FindIterable;
 import com.mongodb.client.ListCollectionsIterable;
 import com.mongodb.client.ListIndexesIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.MongoIterable;
 import com.mongodb.client.model.CountOptions;
@@ -257,6 +258,48 @@ public abstract class AbstractFongoV3Test {
     assertThat(documents).containsExactly(docId(2));
   }
 
+  @Test
+  public void find_with_batchSize_read_all_batches() {
+    // Given
+    final MongoCollection<Document> collection = newCollection();
+
+    // When
+    collection.insertMany(asList(docId(1), docId(2), docId(3), docId(4), docId(5), docId(6), docId(7)));
+    final List<Document> documents = toList(collection.find().batchSize(3));
+
+    // Then
+    assertThat(documents).containsExactly(docId(1), docId(2), docId(3), docId(4), docId(5), docId(6), docId(7));
+  }
+
+  @Test
+  public void find_with_batchSize_and_limit() {
+    // Given
+    final MongoCollection<Document> collection = newCollection();
+
+    // When
+    collection.insertMany(asList(docId(1), docId(2), docId(3), docId(4), docId(5), docId(6), docId(7)));
+    final List<Document> documents = toList(collection.find().skip(1).limit(4).batchSize(3));
+
+    // Then
+    assertThat(documents).containsExactly(docId(2), docId(3), docId(4), docId(5));
+  }
+
+  @Test
+  public void find_with_batchSize_can_be_closed_before_the_end() {
+    // Given
+    final MongoCollection<Document> collection = newCollection();
+    collection.insertMany(asList(docId(1), docId(2), docId(3), docId(4), docId(5)));
+
+    // When
+    final MongoCursor<Document> cursor = collection.find().batchSize(2).iterator();
+    final Document first = cursor.next();
+    cursor.close();
+
+    // Then
+    assertThat(first).isEqualTo(docId(1));
+    assertThat(toList(collection.find().batchSize(2))).hasSize(5);
+  }
+
   @Test
   public void find_with_criteria() {
     // Given
@@ -1230,6 +1273,35 @@ public abstract class AbstractFongoV3Test {
     Assertions.assertThat(buildInfo.getInteger("ok")).isEqualTo(1);
   }
 
+  @Test
+  public void should_planCacheListPlans_by_shape_of_query() {
+    // Given
+    final MongoCollection<Document> collection = newCollection();
+    collection.createIndex(new Document("a", 1));
+    collection.insertMany(asList(new Document("a", 1), new Document("a", 2).append("b", 1)));
+    toList(collection.find(new Document("a", 1)));
+    toList(collection.find(new Document("a", 2)));
+    toList(collection.find(new Document("b", 1)));
+
+    // When
+    final Document plans = fongoRule.getDatabase().runCommand(new Document("planCacheListPlans", collection.getNamespace().getCollectionName())
+        .append("query", new Document("a", 3)));
+
+    // Then
+    Assertions.assertThat(plans.getDouble("ok")).isEqualTo(1.0);
+    Assertions.assertThat(plans.getLong("hits")).isEqualTo(1L);
+    Assertions.assertThat(plans.getLong("misses")).isEqualTo(2L);
+    final List<Document> plansOfShape = (List<Document>) plans.get("plans");
+    Assertions.assertThat(plansOfShape).hasSize(1);
+    Assertions.assertThat(plansOfShape.get(0).get("indexes")).isEqualTo(asList("a_1"));
+    Assertions.assertThat(plansOfShape.get(0).getLong("hits")).isEqualTo(1L);
+
+    // A new index clears the cache.
+    collection.createIndex(new Document("b", 1));
+    Assertions.assertThat((List) fongoRule.getDatabase().runCommand(new Document("planCacheListPlans", collection.getNamespace().getCollectionName()))
+        .get("plans")).isEmpty();
+  }
+
   @Test
   public void should_command_create_collection() {
     // Given
@@ -6,9 +6,12 @@ import com.github.fakemongo.junit.FongoRule;
 import com.google.common.collect.Lists;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.DuplicateKeyException;
 import com.mongodb.FongoDBCollection;
 import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
@@ -209,6 +212,135 @@ public class FongoIndexTest {
     }
   }
 
+  @Test
+  public void testCreateIndexInBackgroundOnDuplicatedData() {
+    DBCollection collection = fongoRule.newCollection();
+
+    collection.insert(new BasicDBObject("n", 1));
+    collection.insert(new BasicDBObject("n", 1));
+    try {
+      collection.createIndex(new BasicDBObject("n", 1), new BasicDBObject("unique", true).append("background", true));
+      fail("need MongoException on duplicate key.");
+    } catch (MongoException me) {
+      assertEquals(11000, me.getCode());
+    }
+    assertEquals(1, collection.getIndexInfo().size());
+  }
+
+  // The writes during the build are in the index.
+  @Test
+  public void testCreateIndexInBackgroundWithConcurrentWrites() throws Exception {
+    final DBCollection collection = fongoRule.newCollection();
+    for (int i = 0; i < 20000; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("n", i));
+    }
+
+    final Thread build = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        collection.createIndex(new BasicDBObject("n", 1), new BasicDBObject("unique", true).append("background", true));
+      }
+    });
+    build.start();
+    int written = 0;
+    for (; build.isAlive() || written < 100; written++) {
+      collection.insert(new BasicDBObject("_id", 20000 + written).append("n", 20000 + written));
+      collection.update(new BasicDBObject("_id", written), new BasicDBObject("$set", new BasicDBObject("n", -written - 1)));
+      collection.remove(new BasicDBObject("_id", 10000 + written));
+      for (Object op : (List) fongoRule.getDB().command(new BasicDBObject("currentOp", 1)).get("inprog")) {
+        assertEquals(collection.getFullName(), ((DBObject) op).get("ns"));
+        Assertions.assertThat((String) ((DBObject) op).get("msg")).startsWith("Index Build (background) Index Build (background): ");
+      }
+    }
+    build.join();
+
+    IndexAbstract index = getIndex(collection, "n_1");
+    assertEquals(collection.count(), index.size());
+    assertEquals(1, collection.count(new BasicDBObject("n", -written)));
+    assertEquals(0, collection.count(new BasicDBObject("n", written - 1)));
+    assertEquals(0, collection.count(new BasicDBObject("n", 10000)));
+    assertEquals(1, collection.count(new BasicDBObject("n", 20000 + written - 1)));
+    assertEquals(Boolean.TRUE, collection.getIndexInfo().get(1).get("background"));
+    assertEquals(Arrays.asList(), fongoRule.getDB().command(new BasicDBObject("currentOp", 1)).get("inprog"));
+  }
+
+  // The same index built in background is published once.
+  @Test
+  public void testCreateIndexInBackgroundDuringTheSameBuild() throws Exception {
+    final DBCollection collection = fongoRule.newCollection();
+    for (int i = 0; i < 20000; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("n", i));
+    }
+
+    final Thread build = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        collection.createIndex(new BasicDBObject("n", 1), new BasicDBObject("background", true));
+      }
+    });
+    build.start();
+    while (build.isAlive() && ((List) fongoRule.getDB().command(new BasicDBObject("currentOp", 1)).get("inprog")).isEmpty()) {
+      Thread.yield();
+    }
+    collection.createIndex(new BasicDBObject("n", 1), new BasicDBObject("background", true));
+    build.join();
+
+    assertEquals(2, collection.getIndexInfo().size());
+    assertEquals(20000, getIndex(collection, "n_1").size());
+  }
+
+  @Test
+  public void testInsertBatchWithDuplicateKeyInTheBatch() {
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("n", 1), "n_1", true);
+    collection.createIndex(new BasicDBObject("g", 1));
+    collection.insert(new BasicDBObject("_id", 0).append("n", 0).append("g", 0));
+
+    try {
+      collection.insert(Arrays.asList(new BasicDBObject("_id", 1).append("n", 2).append("g", 1),
+          new BasicDBObject("_id", 2).append("n", 1).append("g", 1),
+          new BasicDBObject("_id", 3).append("n", 2).append("g", 1),
+          new BasicDBObject("_id", 4).append("n", 3).append("g", 1)));
+      fail("must throw a DuplicateKeyException");
+    } catch (DuplicateKeyException e) {
+      assertEquals(11000, e.getCode());
+    }
+
+    // The documents before the duplicate are inserted.
+    assertEquals(3, collection.count());
+    assertEquals(2, collection.count(new BasicDBObject("g", 1)));
+    assertEquals(3, getIndex(collection, "n_1").size());
+    assertEquals(3, getIndex(collection, "g_1").size());
+    assertEquals(1, collection.findOne(new BasicDBObject("n", 2)).get("_id"));
+    assertEquals(0, collection.count(new BasicDBObject("n", 3)));
+  }
+
+  @Test
+  public void testInsertUnorderedBulkSkipsTheDuplicateKeys() {
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("n", 1), "n_1", true);
+    collection.insert(new BasicDBObject("_id", 0).append("n", 0));
+
+    BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+    bulk.insert(new BasicDBObject("_id", 1).append("n", 0));
+    bulk.insert(new BasicDBObject("_id", 2).append("n", 2));
+    bulk.insert(new BasicDBObject("_id", 3).append("n", 2));
+    bulk.insert(new BasicDBObject("_id", 4).append("n", 4));
+    try {
+      bulk.execute();
+      fail("must throw a BulkWriteException");
+    } catch (BulkWriteException e) {
+      assertEquals(2, e.getWriteErrors().size());
+      assertEquals(0, e.getWriteErrors().get(0).getIndex());
+      assertEquals(2, e.getWriteErrors().get(1).getIndex());
+      assertEquals(2, e.getWriteResult().getInsertedCount());
+    }
+
+    assertEquals(3, collection.count());
+    assertEquals(3, getIndex(collection, "n_1").size());
+    assertEquals(1, collection.count(new BasicDBObject("n", 4)));
+  }
+
   /**
    * Try to update an object and doesn't violate the unique index.
    */
@@ -376,6 +508,363 @@ public class FongoIndexTest {
     assertEquals(1, indexPermalink.getLookupCount());
   }
 
+  @Test
+  public void rangeQueriesMustScanOnlyTheBoundsOfTheIndex() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("date", 1));
+    collection.createIndex(new BasicDBObject("rank", -1));
+    for (int i = 0; i < 100; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("date", i).append("rank", i));
+    }
+    IndexAbstract indexDate = getIndex(collection, "date_1");
+    IndexAbstract indexRank = getIndex(collection, "rank_-1");
+
+    assertEquals(10, collection.find(new BasicDBObject("date", new BasicDBObject("$gte", 10).append("$lt", 20))).count());
+    assertEquals(10, indexDate.getKeysExamined());
+    assertEquals(10, indexDate.getDocsExamined());
+
+    assertEquals(5, collection.find(new BasicDBObject("date", new BasicDBObject("$gt", 94))).count());
+    assertEquals(15, indexDate.getKeysExamined());
+
+    assertEquals(3, collection.find(new BasicDBObject("date", new BasicDBObject("$in", Arrays.asList(50, 3, 7, 1000)))).count());
+    assertEquals(18, indexDate.getKeysExamined());
+
+    assertEquals(0, collection.find(new BasicDBObject("date", new BasicDBObject("$gt", 20).append("$lt", 10))).count());
+    assertEquals(18, indexDate.getKeysExamined());
+
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 2).append("date", 2).append("rank", 2),
+            new BasicDBObject("_id", 1).append("date", 1).append("rank", 1)),
+        collection.find(new BasicDBObject("rank", new BasicDBObject("$lte", 2).append("$gt", 0))).toArray());
+    assertEquals(2, indexRank.getKeysExamined());
+  }
+
+  @Test
+  public void rangeQueriesMustReturnTheSameResultsWithAnIndex() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    DBCollection indexedCollection = fongoRule.newCollection();
+    indexedCollection.createIndex(new BasicDBObject("a.b", 1));
+    List<Object> values = Arrays.<Object>asList(1, 2L, 2.5D, 3, -1, "1", "b", "a", null, new java.util.Date(5), true, 0);
+    for (int i = 0; i < values.size(); i++) {
+      collection.insert(new BasicDBObject("_id", i).append("a", new BasicDBObject("b", values.get(i))));
+      indexedCollection.insert(new BasicDBObject("_id", i).append("a", new BasicDBObject("b", values.get(i))));
+    }
+    collection.insert(new BasicDBObject("_id", 100));
+    indexedCollection.insert(new BasicDBObject("_id", 100));
+
+    List<DBObject> queries = Arrays.<DBObject>asList(
+        new BasicDBObject("a.b", 2),
+        new BasicDBObject("a.b", "a"),
+        new BasicDBObject("a.b", new BasicDBObject("$gt", 1)),
+        new BasicDBObject("a.b", new BasicDBObject("$gte", 2).append("$lte", 3)),
+        new BasicDBObject("a.b", new BasicDBObject("$lt", 2.5D)),
+        new BasicDBObject("a.b", new BasicDBObject("$lte", "b")),
+        new BasicDBObject("a.b", new BasicDBObject("$gt", new java.util.Date(1))),
+        new BasicDBObject("a.b", new BasicDBObject("$in", Arrays.asList(3, "a", 2.0D))));
+    for (DBObject query : queries) {
+      List<DBObject> expected = collection.find(query).toArray();
+      Assertions.assertThat(indexedCollection.find(query).toArray()).as(query.toString())
+          .containsOnly(expected.toArray(new DBObject[expected.size()])).hasSize(expected.size());
+    }
+  }
+
+  @Test
+  public void compoundIndexMustBeUsedForItsFirstField() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("a", 1).append("b", 1));
+    collection.createIndex(new BasicDBObject("c", -1).append("b", 1));
+    for (int i = 0; i < 100; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("a", i % 10).append("b", i).append("c", i % 10));
+    }
+    // Without the second field.
+    collection.insert(new BasicDBObject("_id", 100).append("a", 5).append("c", 5));
+    IndexAbstract indexAB = getIndex(collection, "a_1_b_1");
+    IndexAbstract indexCB = getIndex(collection, "c_-1_b_1");
+
+    assertEquals(11, collection.find(new BasicDBObject("a", 5)).count());
+    assertEquals(1, indexAB.getLookupCount());
+    assertEquals(11, indexAB.getKeysExamined());
+
+    assertEquals(21, collection.find(new BasicDBObject("c", new BasicDBObject("$gte", 4).append("$lt", 6))).count());
+    assertEquals(1, indexCB.getLookupCount());
+    assertEquals(21, indexCB.getKeysExamined());
+
+    assertEquals(30, collection.find(new BasicDBObject("c", new BasicDBObject("$in", Arrays.asList(9, 0, 3)))).count());
+    assertEquals(51, indexCB.getKeysExamined());
+
+    // Not bounded by the first field.
+    assertEquals(1, collection.find(new BasicDBObject("b", 5)).count());
+    assertEquals(1, indexAB.getLookupCount());
+  }
+
+  @Test
+  public void compoundIndexMustReturnTheSameResultsThanWithout() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    DBCollection indexedCollection = fongoRule.newCollection();
+    indexedCollection.createIndex(new BasicDBObject("a", -1).append("b", 1));
+    indexedCollection.createIndex(new BasicDBObject("c", 1));
+    for (int i = 0; i < 300; i++) {
+      DBObject object = new BasicDBObject("_id", i).append("a", i % 7 == 0 ? (Object) ("s" + i % 3) : i % 5);
+      if (i % 4 != 0) {
+        object.put("b", i % 11);
+      }
+      object.put("c", i % 13);
+      collection.insert(object);
+      indexedCollection.insert(object);
+    }
+
+    List<DBObject> queries = Arrays.<DBObject>asList(
+        new BasicDBObject("a", 2),
+        new BasicDBObject("a", "s1"),
+        new BasicDBObject("a", 2).append("b", 3),
+        new BasicDBObject("a", new BasicDBObject("$gt", 1).append("$lte", 3)),
+        new BasicDBObject("a", new BasicDBObject("$lt", 3)).append("b", new BasicDBObject("$gt", 5)),
+        new BasicDBObject("a", new BasicDBObject("$in", Arrays.asList(4, "s2", 0))),
+        new BasicDBObject("a", new BasicDBObject("$gte", 1)).append("c", new BasicDBObject("$lt", 12)),
+        new BasicDBObject("a", new BasicDBObject("$gte", 0)).append("c", new BasicDBObject("$gte", 0)));
+    for (DBObject query : queries) {
+      List<DBObject> expected = collection.find(query).toArray();
+      Assertions.assertThat(indexedCollection.find(query).toArray()).as(query.toString())
+          .containsOnly(expected.toArray(new DBObject[expected.size()])).hasSize(expected.size());
+    }
+  }
+
+  @Test
+  public void indexesMustBeIntersectedWhenNoneIsSelective() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("a", 1));
+    collection.createIndex(new BasicDBObject("c", 1));
+    for (int i = 0; i < 1000; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("a", i % 4).append("c", i % 5));
+    }
+    IndexAbstract indexA = getIndex(collection, "a_1");
+    IndexAbstract indexC = getIndex(collection, "c_1");
+
+    assertEquals(50, collection.find(new BasicDBObject("a", 1).append("c", 2)).count());
+    assertEquals(1, indexA.getLookupCount());
+    assertEquals(1, indexC.getLookupCount());
+
+    // Selective enough : only one index.
+    assertEquals(1, collection.find(new BasicDBObject("a", 1).append("c", 1).append("_id", 1)).count());
+    assertEquals(1, indexA.getLookupCount());
+    assertEquals(1, indexC.getLookupCount());
+    assertEquals(0, collection.find(new BasicDBObject("a", 1).append("c", new BasicDBObject("$in", Arrays.asList(5, 6)))).count());
+    assertEquals(1, indexA.getLookupCount());
+    assertEquals(2, indexC.getLookupCount());
+  }
+
+  // The objects without the field of an index are not in the index, but match $ne, $nin, null...
+  @Test
+  public void indexesMustReturnTheObjectsWithoutTheirField() {
+    assumeFalse(fongoRule.isRealMongo());
+    for (int size : new int[]{20, 1000}) {
+      DBCollection collection = fongoRule.newCollection();
+      DBCollection indexedCollection = fongoRule.newCollection();
+      indexedCollection.createIndex(new BasicDBObject("a", 1));
+      indexedCollection.createIndex(new BasicDBObject("c", 1));
+      for (int i = 0; i < size; i++) {
+        DBObject object = new BasicDBObject("_id", i).append("a", i % 4);
+        if (size == 20 ? i < 2 : i % 3 != 0) {
+          object.put("c", "x" + i % 5);
+        }
+        collection.insert(object);
+        indexedCollection.insert(object);
+      }
+
+      List<DBObject> queries = Arrays.<DBObject>asList(
+          new BasicDBObject("c", "x1"),
+          new BasicDBObject("a", 1).append("c", new BasicDBObject("$ne", "x0")),
+          new BasicDBObject("a", 1).append("c", new BasicDBObject("$nin", Arrays.asList("x1", "x2"))),
+          new BasicDBObject("a", 1).append("c", new BasicDBObject("$exists", false)),
+          new BasicDBObject("a", 1).append("c", new BasicDBObject("$not", new BasicDBObject("$gt", "x2"))),
+          new BasicDBObject("a", 1).append("c", new BasicDBObject("$in", Arrays.asList("x1", null))),
+          new BasicDBObject("a", 1).append("c", new BasicDBObject("$eq", null)),
+          new BasicDBObject("c", null),
+          new BasicDBObject("c", new BasicDBObject("$ne", "x0")));
+      for (DBObject query : queries) {
+        List<DBObject> expected = collection.find(query).toArray();
+        Assertions.assertThat(indexedCollection.find(query).toArray()).as(size + " " + query)
+            .containsOnly(expected.toArray(new DBObject[expected.size()])).hasSize(expected.size());
+        assertEquals(size + " " + query, collection.count(query), indexedCollection.count(query));
+        assertEquals(size + " " + query, collection.update(query, new BasicDBObject("$set", new BasicDBObject("u", 1)), false, true).getN(),
+            indexedCollection.update(query, new BasicDBObject("$set", new BasicDBObject("u", 1)), false, true).getN());
+      }
+      DBObject query = new BasicDBObject("a", 2).append("c", new BasicDBObject("$ne", "x0"));
+      assertEquals(collection.remove(query).getN(), indexedCollection.remove(query).getN());
+      assertEquals(collection.count(), indexedCollection.count());
+    }
+  }
+
+  @Test
+  public void multikeyIndexMustHaveAKeyByElement() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("tags", 1));
+    for (int i = 0; i < 50; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("tags", Arrays.asList("t" + i, "t" + (i + 1), "all", "all")));
+    }
+    collection.insert(new BasicDBObject("_id", 50).append("tags", "t50"));
+    IndexAbstract index = getIndex(collection, "tags_1");
+
+    assertEquals(Arrays.asList(
+        new BasicDBObject("_id", 49).append("tags", Arrays.asList("t49", "t50", "all", "all")),
+        new BasicDBObject("_id", 50).append("tags", "t50")
+    ), collection.find(new BasicDBObject("tags", "t50")).toArray());
+    assertEquals(1, index.getKeysExamined());
+    assertEquals(2, index.getDocsExamined());
+
+    // Only once each object.
+    assertEquals(50, collection.find(new BasicDBObject("tags", new BasicDBObject("$in", Arrays.asList("all", "t1")))).count());
+    assertEquals(51, collection.count());
+    assertEquals(51, index.size());
+
+    // Each bound can be matched by another element.
+    collection.insert(new BasicDBObject("_id", 51).append("tags", Arrays.asList(0, 5)));
+    assertEquals(1, collection.find(new BasicDBObject("tags", new BasicDBObject("$gt", 1).append("$lt", 3))).count());
+
+    collection.update(new BasicDBObject("_id", 49), new BasicDBObject("$pull", new BasicDBObject("tags", "t50")));
+    collection.remove(new BasicDBObject("_id", 50));
+    assertEquals(0, collection.find(new BasicDBObject("tags", "t50")).count());
+    assertEquals(2, collection.find(new BasicDBObject("tags", "t49")).count());
+    assertEquals(51, index.size());
+  }
+
+  @Test
+  public void multikeyIndexOnEmbeddedField() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("acl.user", 1));
+    collection.insert(new BasicDBObject("_id", 1).append("acl", Arrays.asList(new BasicDBObject("user", "a"), new BasicDBObject("user", "b"))));
+    collection.insert(new BasicDBObject("_id", 2).append("acl", Arrays.asList(new BasicDBObject("user", "b"), new BasicDBObject("role", "r"))));
+    collection.insert(new BasicDBObject("_id", 3).append("acl", new BasicDBObject("user", "c")));
+    IndexAbstract index = getIndex(collection, "acl.user_1");
+
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2)),
+        collection.find(new BasicDBObject("acl.user", "b"), new BasicDBObject("_id", 1)).toArray());
+    assertEquals(1, index.getKeysExamined());
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 3)),
+        collection.find(new BasicDBObject("acl.user", "c"), new BasicDBObject("_id", 1)).toArray());
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 2)),
+        collection.find(new BasicDBObject("acl.role", "r"), new BasicDBObject("_id", 1)).toArray());
+  }
+
+  @Test
+  public void uniqueMultikeyIndexMustCheckEachElement() {
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("tags", 1), new BasicDBObject("unique", true));
+    collection.insert(new BasicDBObject("_id", 1).append("tags", Arrays.asList("a", "b", "b")));
+    try {
+      collection.insert(new BasicDBObject("_id", 2).append("tags", Arrays.asList("c", "b")));
+      fail("Must throw an exception");
+    } catch (MongoException me) {
+      assertEquals(11000, me.getCode());
+    }
+    collection.insert(new BasicDBObject("_id", 3).append("tags", Arrays.asList("c", "d")));
+    assertEquals(new BasicDBObject("_id", 3).append("tags", Arrays.asList("c", "d")), collection.findOne(new BasicDBObject("tags", "d")));
+  }
+
+  @Test
+  public void orderedIndexMustGiveTheOrderOfTheSort() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    DBCollection notIndexedCollection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("n", 1));
+    for (int i = 0; i < 100; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("n", (i * 37) % 10));
+      notIndexedCollection.insert(new BasicDBObject("_id", i).append("n", (i * 37) % 10));
+    }
+    IndexAbstract index = getIndex(collection, "n_1");
+
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 0).append("n", 0), new BasicDBObject("_id", 10).append("n", 0)),
+        collection.find().sort(new BasicDBObject("n", 1)).limit(2).toArray());
+    assertEquals(1, index.getKeysExamined());
+    assertEquals(2, index.getDocsExamined());
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 7).append("n", 9), new BasicDBObject("_id", 17).append("n", 9)),
+        collection.find().sort(new BasicDBObject("n", -1)).limit(2).toArray());
+    assertEquals(2, index.getKeysExamined());
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 8).append("n", 6)),
+        collection.find(new BasicDBObject("n", new BasicDBObject("$gt", 5))).sort(new BasicDBObject("n", 1)).limit(1).toArray());
+    assertEquals(3, index.getKeysExamined());
+
+    // Same order for the equal values.
+    for (int order : new int[]{1, -1}) {
+      assertEquals(notIndexedCollection.find().sort(new BasicDBObject("n", order)).toArray(),
+          collection.find().sort(new BasicDBObject("n", order)).toArray());
+      assertEquals(notIndexedCollection.find(new BasicDBObject("n", new BasicDBObject("$lt", 4))).sort(new BasicDBObject("n", order)).skip(5).limit(12).toArray(),
+          collection.find(new BasicDBObject("n", new BasicDBObject("$lt", 4))).sort(new BasicDBObject("n", order)).skip(5).limit(12).toArray());
+    }
+    assertEquals(notIndexedCollection.findAndModify(new BasicDBObject("_id", new BasicDBObject("$gt", 50)), new BasicDBObject("n", -1), new BasicDBObject("$set", new BasicDBObject("updated", true))),
+        collection.findAndModify(new BasicDBObject("_id", new BasicDBObject("$gt", 50)), new BasicDBObject("n", -1), new BasicDBObject("$set", new BasicDBObject("updated", true))));
+
+    // An object without the field is not in the index : must be sorted.
+    collection.insert(new BasicDBObject("_id", 100));
+    notIndexedCollection.insert(new BasicDBObject("_id", 100));
+    assertEquals(notIndexedCollection.find().sort(new BasicDBObject("n", 1)).limit(3).toArray(),
+        collection.find().sort(new BasicDBObject("n", 1)).limit(3).toArray());
+  }
+
+  @Test
+  public void compoundIndexMustGiveTheOrderOfTheSortAfterItsEqualities() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    DBCollection notIndexedCollection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("a", 1).append("b", 1));
+    for (int i = 0; i < 100; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("a", i % 3).append("b", i));
+      notIndexedCollection.insert(new BasicDBObject("_id", i).append("a", i % 3).append("b", i));
+    }
+    IndexAbstract index = getIndex(collection, "a_1_b_1");
+
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 97).append("a", 1).append("b", 97), new BasicDBObject("_id", 94).append("a", 1).append("b", 94)),
+        collection.find(new BasicDBObject("a", 1)).sort(new BasicDBObject("b", -1)).limit(2).toArray());
+    assertEquals(2, index.getKeysExamined());
+
+    for (DBObject sort : Arrays.<DBObject>asList(new BasicDBObject("a", 1).append("b", 1), new BasicDBObject("a", -1).append("b", -1),
+        new BasicDBObject("a", 1).append("b", -1), new BasicDBObject("b", 1))) {
+      assertEquals(notIndexedCollection.find().sort(sort).limit(10).toArray(), collection.find().sort(sort).limit(10).toArray());
+      assertEquals(notIndexedCollection.find(new BasicDBObject("a", 2)).sort(sort).toArray(), collection.find(new BasicDBObject("a", 2)).sort(sort).toArray());
+    }
+  }
+
+  @Test
+  public void coveredQueryMustNotReadTheObjects() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("userId", 1).append("profile.name", 1));
+    for (int i = 0; i < 20; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("userId", i % 5)
+          .append("profile", new BasicDBObject("name", "n" + i).append("bio", "bio" + i)).append("payload", Arrays.asList(i, i)));
+    }
+    IndexAbstract index = getIndex(collection, "userId_1_profile.name_1");
+
+    assertEquals(Arrays.asList(new BasicDBObject("userId", 3), new BasicDBObject("userId", 3), new BasicDBObject("userId", 3), new BasicDBObject("userId", 3)),
+        collection.find(new BasicDBObject("userId", 3), new BasicDBObject("userId", 1).append("_id", 0)).toArray());
+    assertEquals(Arrays.asList(new BasicDBObject("userId", 4).append("profile", new BasicDBObject("name", "n9")),
+            new BasicDBObject("userId", 4).append("profile", new BasicDBObject("name", "n4"))),
+        collection.find(new BasicDBObject("userId", new BasicDBObject("$gt", 3)), new BasicDBObject("userId", 1).append("profile.name", 1).append("_id", 0))
+            .sort(new BasicDBObject("userId", -1).append("profile.name", -1)).limit(2).toArray());
+    assertEquals(2, index.getLookupCount());
+    assertEquals(0, index.getDocsExamined());
+
+    // A result can be modified without changing the index.
+    DBObject result = collection.findOne(new BasicDBObject("userId", 1).append("profile.name", "n1"), new BasicDBObject("profile.name", 1).append("_id", 0));
+    ((DBObject) result.get("profile")).put("name", "changed");
+    assertEquals(new BasicDBObject("profile", new BasicDBObject("name", "n1")),
+        collection.findOne(new BasicDBObject("userId", 1).append("profile.name", "n1"), new BasicDBObject("profile.name", 1).append("_id", 0)));
+    assertEquals(4, index.getLookupCount());
+    assertEquals(0, index.getDocsExamined());
+
+    // Not covered : _id, or another field.
+    assertEquals(new BasicDBObject("_id", 1).append("userId", 1),
+        collection.findOne(new BasicDBObject("userId", 1), new BasicDBObject("userId", 1)));
+    assertEquals(new BasicDBObject("profile", new BasicDBObject("bio", "bio1")),
+        collection.findOne(new BasicDBObject("userId", 1), new BasicDBObject("profile.bio", 1).append("_id", 0)));
+  }
+
   // Check if index is correctly cleaned.
   @Test
   public void afterRemoveObjectMustNotBeRetrieved() {
@@ -811,6 +1300,62 @@ public class FongoIndexTest {
     ), cursor.toArray());
   }
 
+  @Test
+  public void should_handled_hashed_index_with_the_hash_of_the_values() throws Exception {
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("user.name", "hashed"));
+    for (int i = 0; i < 100; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("user", new BasicDBObject("name", "name" + (i % 10))));
+    }
+    collection.insert(new BasicDBObject("_id", 100).append("user", new BasicDBObject("name", 1)));
+    collection.insert(new BasicDBObject("_id", 101).append("user", new BasicDBObject("name", "1")));
+    collection.insert(new BasicDBObject("_id", 102).append("user", new BasicDBObject("name", new BasicDBObject("first", "a"))));
+    collection.insert(new BasicDBObject("_id", 103).append("user", new BasicDBObject("name", new BasicDBObject("first", "b"))));
+    collection.insert(new BasicDBObject("_id", 104));
+    IndexAbstract index = getIndex(collection, "user.name_hashed");
+
+    assertEquals(104, index.size());
+    // Only the key of the hash of the value.
+    assertEquals(10, collection.count(new BasicDBObject("user.name", "name3")));
+    assertEquals(1, index.getLookupCount());
+    assertEquals(1, index.getKeysExamined());
+    assertEquals(10, index.getDocsExamined());
+
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 100)),
+        collection.find(new BasicDBObject("user.name", 1.0D), new BasicDBObject("_id", 1)).toArray());
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 101)),
+        collection.find(new BasicDBObject("user.name", "1"), new BasicDBObject("_id", 1)).toArray());
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 103)),
+        collection.find(new BasicDBObject("user.name", new BasicDBObject("first", "b")), new BasicDBObject("_id", 1)).toArray());
+    assertEquals(20, collection.count(new BasicDBObject("user.name", new BasicDBObject("$in", Arrays.asList("name1", "name2", "name1")))));
+    assertEquals(0, collection.count(new BasicDBObject("user.name", "unknown")));
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 104)),
+        collection.find(new BasicDBObject("user.name", null), new BasicDBObject("_id", 1)).toArray());
+    assertEquals(20, collection.count(new BasicDBObject("user.name", new BasicDBObject("$gte", "name8"))));
+  }
+
+  @Test
+  public void should_handled_unique_hashed_index_on_embedded_values() throws Exception {
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("user", "hashed"), "user_hashed", true);
+    collection.insert(new BasicDBObject("_id", 1).append("user", new BasicDBObject("name", "a")));
+    collection.insert(new BasicDBObject("_id", 2).append("user", new BasicDBObject("name", "b")));
+    collection.insert(new BasicDBObject("_id", 3).append("user", new BasicDBObject("name", "a").append("age", 3)));
+    try {
+      collection.insert(new BasicDBObject("_id", 4).append("user", new BasicDBObject("name", "b")));
+      fail("need MongoException on duplicate key.");
+    } catch (MongoException me) {
+      assertEquals(11000, me.getCode());
+    }
+    IndexAbstract index = getIndex(collection, "user_hashed");
+
+    assertEquals(3, index.size());
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 2)),
+        collection.find(new BasicDBObject("user", new BasicDBObject("name", "b")), new BasicDBObject("_id", 1)).toArray());
+    assertEquals(1, index.getLookupCount());
+    assertEquals(1, index.getDocsExamined());
+  }
+
   @Test
   public void should_not_handled_hashed_index_on_array_before() throws Exception {
     ExpectedMongoException.expectCode(exception, 16766, MongoCommandException.class);
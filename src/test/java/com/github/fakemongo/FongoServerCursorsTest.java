@@ -0,0 +1,65 @@
+package com.github.fakemongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import java.util.Arrays;
+import java.util.Iterator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class FongoServerCursorsTest {
+
+  private static Iterator<DBObject> results() {
+    return Arrays.<DBObject>asList(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2)).iterator();
+  }
+
+  @Test
+  public void should_not_open_a_cursor_without_results() {
+    final FongoServerCursors cursors = new FongoServerCursors();
+
+    assertEquals(0L, cursors.open("db.coll", Arrays.<DBObject>asList().iterator(), false));
+    assertEquals(0, cursors.size());
+  }
+
+  @Test
+  public void should_close_the_idle_cursors() {
+    final FongoServerCursors cursors = new FongoServerCursors(0, FongoServerCursors.DEFAULT_MAX_CURSORS);
+
+    final long idle = cursors.open("db.coll", results(), false);
+    final long noTimeout = cursors.open("db.coll", results(), true);
+
+    assertNull(cursors.get(idle));
+    assertNotNull(cursors.get(noTimeout));
+    assertEquals(1, cursors.size());
+  }
+
+  @Test
+  public void should_close_the_least_recently_used_cursors_beyond_the_max() {
+    final FongoServerCursors cursors = new FongoServerCursors(FongoServerCursors.DEFAULT_TIMEOUT_MILLIS, 2);
+
+    final long first = cursors.open("db.coll", results(), false);
+    final long second = cursors.open("db.coll", results(), false);
+    cursors.get(first);
+    final long third = cursors.open("db.coll", results(), false);
+
+    assertNotNull(cursors.get(first));
+    assertNull(cursors.get(second));
+    assertNotNull(cursors.get(third));
+  }
+
+  @Test
+  public void should_close_the_cursors_of_a_dropped_collection() {
+    final Fongo fongo = new Fongo("fongo");
+    fongo.getDB("db").getCollection("coll").insert(new BasicDBObject("_id", 1));
+    fongo.getDB("db").getCollection("other").insert(new BasicDBObject("_id", 1));
+    final long cursor = fongo.getServerCursors().open("db.coll", results(), true);
+    final long other = fongo.getServerCursors().open("db.other", results(), true);
+
+    fongo.getDB("db").getCollection("coll").drop();
+
+    assertNull(fongo.getServerCursors().get(cursor));
+    assertNotNull(fongo.getServerCursors().get(other));
+  }
+}
@@ -2,6 +2,7 @@ package com.github.fakemongo;
 
 import ch.qos.logback.classic.Level;
 import com.github.fakemongo.impl.ExpressionParser;
+import com.github.fakemongo.impl.Filter;
 import com.github.fakemongo.impl.Util;
 import com.github.fakemongo.junit.FongoRule;
 import com.google.common.collect.Sets;
@@ -71,6 +72,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class FongoTest {
 
@@ -742,6 +744,35 @@ public class FongoTest {
     ), cursor.toArray());
   }
 
+  @Test
+  public void testSortWithSkipLimitKeepsInsertedOrderOfEqualValues() {
+    DBCollection collection = newCollection();
+    for (int i = 0; i < 100; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("a", i % 3).append("b", i % 2));
+    }
+
+    List<DBObject> objects = collection.find(new BasicDBObject("b", 1)).sort(new BasicDBObject("a", -1)).skip(2).limit(4).toArray();
+    assertEquals(Arrays.asList(
+        new BasicDBObject("_id", 17).append("a", 2).append("b", 1),
+        new BasicDBObject("_id", 23).append("a", 2).append("b", 1),
+        new BasicDBObject("_id", 29).append("a", 2).append("b", 1),
+        new BasicDBObject("_id", 35).append("a", 2).append("b", 1)
+    ), objects);
+  }
+
+  @Test
+  public void testSortFindAndModifyWithQuery() {
+    DBCollection collection = newCollection();
+    collection.insert(new BasicDBObject("a", 3).append("b", 1).append("_id", 1));
+    collection.insert(new BasicDBObject("a", 1).append("b", 2).append("_id", 2));
+    collection.insert(new BasicDBObject("a", 2).append("b", 1).append("_id", 3));
+    collection.insert(new BasicDBObject("a", 2).append("b", 1).append("_id", 4));
+
+    DBObject object = collection.findAndModify(new BasicDBObject("b", 1), new BasicDBObject("a", 1), new BasicDBObject("$set", new BasicDBObject("c", 1)));
+    assertEquals(new BasicDBObject("a", 2).append("b", 1).append("_id", 3), object);
+    assertEquals(1, collection.count(new BasicDBObject("c", 1)));
+  }
+
   @Test
   public void testCompoundSortFindAndModify() {
     DBCollection collection = newCollection();
@@ -1117,6 +1148,23 @@ public class FongoTest {
     assertEquals(new BasicDBObject("_id", 1).append("a", 2).append("b", new BasicDBObject("c", 2)), collection.findOne());
   }
 
+  // Between equal values of the sort, the same object than find.
+  @Test
+  public void testFindAndModifyWithInAndSortLikeFind() {
+    final DBCollection collection = newCollection();
+    for (int i = 1; i <= 8; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("a", 1));
+    }
+
+    final BasicDBObject query = new BasicDBObject("_id", new BasicDBObject("$in", Util.list(7, 3)));
+    final BasicDBObject sort = new BasicDBObject("a", 1);
+    final DBObject first = collection.find(query).sort(sort).limit(1).next();
+    final DBObject result = collection.findAndModify(query, null, sort, false, new BasicDBObject("$set", new BasicDBObject("b", 1)), false, false);
+
+    assertEquals(new BasicDBObject("_id", 3).append("a", 1), first);
+    assertEquals(first, result);
+  }
+
   @Test
   public void testFindAndModifyReturnNew() {
     final DBCollection collection = newCollection();
@@ -1609,6 +1657,52 @@ public class FongoTest {
     }
   }
 
+  @Test(timeout = 16000)
+  public void testMultiThreadReadWhileWriting() throws Exception {
+    final DBCollection col = newCollection();
+    col.createIndex(new BasicDBObject("n", 1));
+    for (int i = 0; i < 1000; i++) {
+      col.insert(new BasicDBObject("_id", i).append("n", i % 10));
+    }
+
+    final int threads = 8;
+    final CountDownLatch lockSynchro = new CountDownLatch(threads);
+    final CountDownLatch lockDone = new CountDownLatch(threads);
+    final AtomicInteger errors = new AtomicInteger();
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      new Thread() {
+        public void run() {
+          lockSynchro.countDown();
+          try {
+            lockSynchro.await();
+            for (int i = 0; i < 200; i++) {
+              if (thread == 0) {
+                col.insert(new BasicDBObject("_id", 1000 + i).append("n", 10));
+                col.update(new BasicDBObject("_id", i), new BasicDBObject("$inc", new BasicDBObject("v", 1)));
+              } else {
+                col.find(new BasicDBObject("n", i % 10)).toArray();
+                col.count(new BasicDBObject("n", i % 10));
+                col.distinct("n");
+              }
+            }
+          } catch (Exception e) {
+            errors.incrementAndGet();
+          } finally {
+            lockDone.countDown();
+          }
+        }
+      }.start();
+    }
+
+    assertTrue("Too long :-(", lockDone.await(15, TimeUnit.SECONDS));
+
+    assertEquals(0, errors.get());
+    assertEquals(1200, col.count());
+    assertEquals(200, col.count(new BasicDBObject("n", 10)));
+    assertEquals(200, col.count(new BasicDBObject("v", 1)));
+  }
+
   // Don't know why, but request by _id only return document event if limit is set
   @Test
   public void testFindLimit0ById() throws Exception {
@@ -2831,6 +2925,86 @@ public class FongoTest {
     bulkWriteOperation.execute().isAcknowledged();
   }
 
+  @Test
+  public void test_registered_operator_only_for_the_collections_of_its_fongo() {
+    // Given
+    final Fongo fongo = new Fongo("fongo");
+    final Fongo other = new Fongo("other");
+    fongo.getOperatorRegistry().register("$startsWith", new ExpressionParser.FilterFactory() {
+      @Override
+      public Filter createFilter(final List<String> path, final DBObject refExpression) {
+        return new Filter() {
+          @Override
+          public boolean apply(DBObject o) {
+            Object value = o.get(path.get(0));
+            return value instanceof String && ((String) value).startsWith((String) refExpression.get("$startsWith"));
+          }
+        };
+      }
+    });
+    for (Fongo f : Arrays.asList(fongo, other)) {
+      DBCollection collection = f.getDB("db").getCollection("coll");
+      collection.createIndex(new BasicDBObject("n", 1));
+      collection.insert(new BasicDBObject("_id", 1).append("n", "fred"));
+      collection.insert(new BasicDBObject("_id", 2).append("n", "ted"));
+    }
+
+    // When
+    DBObject query = new BasicDBObject("n", new BasicDBObject("$startsWith", "fr"));
+
+    // Then
+    assertEquals(Arrays.asList(new BasicDBObject("_id", 1).append("n", "fred")), fongo.getDB("db").getCollection("coll").find(query).toArray());
+    assertEquals(0, other.getDB("db").getCollection("coll").count(query));
+  }
+
+  @Test
+  public void test_bulk_unordered_groups_the_requests_by_type() {
+    // Given
+    DBCollection collection = newCollection();
+    collection.insert(new BasicDBObject("_id", 100).append("hi", 1));
+
+    // When
+    BulkWriteOperation bulkWriteOperation = collection.initializeUnorderedBulkOperation();
+    bulkWriteOperation.insert(new BasicDBObject("_id", 101).append("hi", 1));
+    bulkWriteOperation.find(new BasicDBObject("_id", 100)).remove();
+    bulkWriteOperation.insert(new BasicDBObject("_id", 100).append("hi", 2));
+    bulkWriteOperation.find(new BasicDBObject("_id", 200)).upsert().update(new BasicDBObject("$set", new BasicDBObject("hi", 3)));
+    bulkWriteOperation.insert(new BasicDBObject("_id", 102).append("hi", 1));
+    try {
+      bulkWriteOperation.execute();
+      fail("must throw a BulkWriteException");
+    } catch (BulkWriteException e) {
+      // Then : the inserts before the remove.
+      assertEquals(1, e.getWriteErrors().size());
+      assertEquals(2, e.getWriteErrors().get(0).getIndex());
+      assertEquals(2, e.getWriteResult().getInsertedCount());
+      assertEquals(1, e.getWriteResult().getRemovedCount());
+      assertEquals(3, e.getWriteResult().getUpserts().get(0).getIndex());
+    }
+
+    assertEquals(Arrays.asList(101, 102, 200), collection.distinct("_id"));
+  }
+
+  @Test
+  public void test_bulk_ordered_keeps_the_order_of_the_requests() {
+    // Given
+    DBCollection collection = newCollection();
+    collection.insert(new BasicDBObject("_id", 100).append("hi", 1));
+
+    // When
+    BulkWriteOperation bulkWriteOperation = collection.initializeOrderedBulkOperation();
+    bulkWriteOperation.insert(new BasicDBObject("_id", 101).append("hi", 1));
+    bulkWriteOperation.find(new BasicDBObject("_id", 100)).remove();
+    bulkWriteOperation.insert(new BasicDBObject("_id", 100).append("hi", 2));
+    bulkWriteOperation.insert(new BasicDBObject("_id", 102).append("hi", 1));
+    BulkWriteResult bulkResult = bulkWriteOperation.execute();
+
+    // Then
+    assertEquals(3, bulkResult.getInsertedCount());
+    assertEquals(1, bulkResult.getRemovedCount());
+    assertEquals(2, collection.findOne(new BasicDBObject("_id", 100)).get("hi"));
+  }
+
   @Test
   public void test_bulk_insert() {
     // Given
@@ -4092,6 +4266,37 @@ public class FongoTest {
     return fongoRule.newCollection("db");
   }
 
+  @Test
+  public void should_insert_more_than_100000_documents_by_default() {
+    // Given
+    DBCollection collection = newCollection();
+    List<DBObject> documents = new ArrayList<DBObject>();
+    for (int i = 0; i < 100010; i++) {
+      documents.add(new BasicDBObject("_id", i).append("n", i % 100));
+    }
+
+    // When
+    collection.insert(documents);
+
+    // Then
+    assertEquals(100010, collection.count());
+    assertEquals(1000, collection.count(new BasicDBObject("n", 42)));
+  }
+
+  @Test
+  public void should_enforce_configured_max_documents_per_collection() {
+    // Given
+    Fongo fongo = newFongo();
+    fongo.setMaxDocumentsPerCollection(2);
+    DBCollection collection = fongo.getDB("db").getCollection("coll");
+    collection.insert(new BasicDBObject("_id", 1));
+    collection.insert(new BasicDBObject("_id", 2));
+
+    // When
+    exception.expect(FongoException.class);
+    collection.insert(new BasicDBObject("_id", 3));
+  }
+
   private Fongo newFongo() {
     return new Fongo("FongoTest");
   }
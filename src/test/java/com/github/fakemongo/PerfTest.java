@@ -2,14 +2,22 @@ package com.github.fakemongo;
 
 import ch.qos.logback.classic.Level;
 import com.github.fakemongo.impl.ExpressionParser;
+import com.github.fakemongo.impl.Filter;
+import com.github.fakemongo.impl.Util;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.mongodb.FongoDBCollection;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.bson.Document;
 import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
 import org.slf4j.LoggerFactory;
 
 import org.openjdk.jmh.runner.Runner;
@@ -119,6 +127,276 @@ public class PerfTest {
     db.drop();
   }
 
+  /**
+   * Collection shared by all the threads of the concurrent read benchmarks.
+   */
+  @State(Scope.Benchmark)
+  public static class ReadCollection {
+    public int size = 10000;
+
+    private DBCollection collection;
+
+    @Setup
+    public void prepare() {
+      collection = new Fongo("fongo").getDB("db").getCollection("coll");
+      collection.createIndex(new BasicDBObject("n", 1));
+      for (int k = 0; k < size; k++) {
+        collection.insert(new BasicDBObject("_id", k).append("n", k % 100));
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ReadCursor {
+    private int k;
+
+    int next(int size) {
+      k = (k + 7) % size;
+      return k;
+    }
+  }
+
+  private static void read(ReadCollection readCollection, ReadCursor cursor, Blackhole blackhole) {
+    final int k = cursor.next(readCollection.size);
+    blackhole.consume(readCollection.collection.findOne(new BasicDBObject("_id", k)));
+    blackhole.consume(readCollection.collection.count(new BasicDBObject("n", k % 100)));
+  }
+
+  // Read throughput must scale with the number of threads : finds and counts share the collection lock.
+  @Benchmark
+  @Threads(1)
+  public void concurrentReads1Thread(ReadCollection readCollection, ReadCursor cursor, Blackhole blackhole) {
+    read(readCollection, cursor, blackhole);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void concurrentReads4Threads(ReadCollection readCollection, ReadCursor cursor, Blackhole blackhole) {
+    read(readCollection, cursor, blackhole);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void concurrentReads16Threads(ReadCollection readCollection, ReadCursor cursor, Blackhole blackhole) {
+    read(readCollection, cursor, blackhole);
+  }
+
+  @State(Scope.Benchmark)
+  public static class BigCollection {
+    public int size = 100000;
+
+    private DBCollection collection;
+
+    @Setup
+    public void prepare() {
+      collection = new Fongo("fongo").getDB("db").getCollection("coll");
+      for (int k = 0; k < size; k++) {
+        collection.insert(new BasicDBObject("_id", k).append("n", k % 100));
+      }
+    }
+  }
+
+  // Natural order : must not sort the collection.
+  @Benchmark
+  public void findAllNaturalOrder(BigCollection bigCollection, Blackhole blackhole) {
+    blackhole.consume(bigCollection.collection.find().toArray());
+  }
+
+  @Benchmark
+  public void findFirstNaturalOrder(BigCollection bigCollection, Blackhole blackhole) {
+    blackhole.consume(bigCollection.collection.find(new BasicDBObject("n", 42)).limit(10).toArray());
+  }
+
+  // Index build on a populated collection : the keys are sorted once.
+  @Benchmark
+  public void createIndexOnBigCollection(BigCollection bigCollection) {
+    bigCollection.collection.createIndex(new BasicDBObject("n", 1).append("_id", -1));
+    bigCollection.collection.dropIndex(new BasicDBObject("n", 1).append("_id", -1));
+  }
+
+  // Sort + limit : must not sort the whole collection.
+  @Benchmark
+  public void findSortLimit(BigCollection bigCollection, Blackhole blackhole) {
+    blackhole.consume(bigCollection.collection.find().sort(new BasicDBObject("_id", -1)).limit(20).toArray());
+  }
+
+  // Sort of the whole collection : compareTo() for every comparison.
+  @Benchmark
+  public void findSort(BigCollection bigCollection, Blackhole blackhole) {
+    blackhole.consume(bigCollection.collection.find().sort(new BasicDBObject("n", 1).append("_id", -1)).toArray());
+  }
+
+  // Inserts in an index : compareTo() for every comparison of the TreeMap.
+  @Benchmark
+  public void insertWithIndex() {
+    final DB db = createDB();
+    final DBCollection collection = db.getCollection("coll");
+
+    collection.createIndex(new BasicDBObject("name", 1));
+    collection.createIndex(new BasicDBObject("n", 1));
+    for (int k = 0; k < size; k++) {
+      collection.insert(new BasicDBObject("_id", k).append("name", "name" + (k * 7 % size)).append("n", k * 7 % size));
+    }
+
+    db.dropDatabase();
+  }
+
+  // Inserts of batches in indexes : one pass by index for each batch.
+  @Benchmark
+  public void insertBatchWithIndex() {
+    final DB db = createDB();
+    final DBCollection collection = db.getCollection("coll");
+
+    collection.createIndex(new BasicDBObject("name", 1), new BasicDBObject("unique", true));
+    collection.createIndex(new BasicDBObject("status", 1));
+    for (int batch = 0; batch < 10; batch++) {
+      final List<DBObject> documents = new ArrayList<DBObject>(size);
+      for (int k = batch * size; k < (batch + 1) * size; k++) {
+        documents.add(new BasicDBObject("_id", k).append("name", "name" + (k * 7 % (size * 10))).append("status", k % 5));
+      }
+      collection.insert(documents);
+    }
+
+    db.dropDatabase();
+  }
+
+  // Bulk of interleaved inserts, updates and removes on an indexed field, of different objects.
+  @Benchmark
+  public void bulkWriteWithIndex() {
+    final DB db = createDB();
+    final DBCollection collection = db.getCollection("coll");
+
+    collection.createIndex(new BasicDBObject("n", 1));
+    for (int batch = 0; batch < 10; batch++) {
+      final BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+      for (int k = batch * size; k < (batch + 1) * size; k++) {
+        bulk.insert(new BasicDBObject("_id", k).append("n", k).append("v", 0));
+        bulk.find(new BasicDBObject("n", k - size)).updateOne(new BasicDBObject("$inc", new BasicDBObject("v", 1)));
+        if (k % 10 == 0) {
+          bulk.find(new BasicDBObject("n", k - 2 * size)).remove();
+        }
+      }
+      bulk.execute();
+    }
+
+    db.dropDatabase();
+  }
+
+  // Removes from an index with few keys : each key holds many objects.
+  @Benchmark
+  public void removeWithLowCardinalityIndex() {
+    final DB db = createDB();
+    final DBCollection collection = db.getCollection("coll");
+
+    collection.createIndex(new BasicDBObject("status", 1));
+    for (int k = 0; k < size * 10; k++) {
+      collection.insert(new BasicDBObject("_id", k).append("status", k % 5));
+    }
+    for (int k = 0; k < size * 10; k++) {
+      collection.remove(new BasicDBObject("_id", k));
+    }
+
+    db.dropDatabase();
+  }
+
+  @State(Scope.Benchmark)
+  public static class WideObjects {
+    public int size = 1000;
+
+    private DBCollection collection;
+
+    @Setup
+    public void prepare() {
+      collection = new Fongo("fongo").getDB("db").getCollection("coll");
+      collection.createIndex(new BasicDBObject("n", 1));
+      collection.createIndex(new BasicDBObject("profile.name", 1).append("n", 1));
+      for (int k = 0; k < size; k++) {
+        final BasicDBObject object = new BasicDBObject("_id", k).append("n", k).append("profile", new BasicDBObject("name", "name" + k));
+        for (int field = 0; field < 50; field++) {
+          object.append("field" + field, new BasicDBObject("value", field).append("values", Arrays.asList(field, k)));
+        }
+        collection.insert(object);
+      }
+    }
+  }
+
+  // Updates of indexed objects with many fields : the keys of the indexes only read the indexed fields.
+  @Benchmark
+  public void updateWithIndexOnWideObjects(WideObjects wideObjects, ReadCursor cursor) {
+    final int k = cursor.next(wideObjects.size);
+    wideObjects.collection.update(new BasicDBObject("_id", k), new BasicDBObject("$inc", new BasicDBObject("n", wideObjects.size)));
+  }
+
+  @State(Scope.Benchmark)
+  public static class IndexedBigCollection {
+    public int size = 100000;
+
+    private DBCollection collection;
+
+    @Setup
+    public void prepare() {
+      collection = new Fongo("fongo").getDB("db").getCollection("coll");
+      collection.createIndex(new BasicDBObject("n", 1));
+      for (int k = 0; k < size; k++) {
+        collection.insert(new BasicDBObject("_id", k).append("n", k));
+      }
+    }
+  }
+
+  // Sort + limit on an indexed field : the index gives the order, only the first objects are read.
+  @Benchmark
+  public void findSortLimitWithIndex(IndexedBigCollection indexedBigCollection, Blackhole blackhole) {
+    blackhole.consume(indexedBigCollection.collection.find().sort(new BasicDBObject("n", -1)).limit(20).toArray());
+  }
+
+  @State(Scope.Benchmark)
+  public static class HashedCollection {
+    public int size = 100000;
+
+    private DBCollection collection;
+
+    @Setup
+    public void prepare() {
+      collection = new Fongo("fongo").getDB("db").getCollection("coll");
+      collection.createIndex(new BasicDBObject("name", "hashed"));
+      for (int k = 0; k < size; k++) {
+        collection.insert(new BasicDBObject("_id", k).append("name", "name" + k));
+      }
+    }
+  }
+
+  // Equality on an hashed field : only the key of the hash is read.
+  @Benchmark
+  public void findWithHashedIndex(HashedCollection hashedCollection, ReadCursor cursor, Blackhole blackhole) {
+    final int k = cursor.next(hashedCollection.size);
+    blackhole.consume(hashedCollection.collection.findOne(new BasicDBObject("name", "name" + k)));
+  }
+
+  @State(Scope.Benchmark)
+  public static class EqualityFilters {
+    private final DBObject object = new BasicDBObject("_id", 1).append("profile", new BasicDBObject("name", "name").append("country", "fr"));
+    private Filter interpreted;
+    private Filter specialized;
+
+    @Setup
+    public void prepare() {
+      final ExpressionParser expressionParser = new ExpressionParser();
+      interpreted = expressionParser.simpleFilter(Util.split("profile.country"), "fr");
+      specialized = expressionParser.buildFilter(new BasicDBObject("profile.country", "fr"));
+    }
+  }
+
+  // Equality on an embedded field : the filter of the query against the generic filter.
+  @Benchmark
+  public boolean equalityFilterInterpreted(EqualityFilters filters) {
+    return filters.interpreted.apply(filters.object);
+  }
+
+  @Benchmark
+  public boolean equalityFilterSpecialized(EqualityFilters filters) {
+    return filters.specialized.apply(filters.object);
+  }
+
   public static void main(String[] args) throws RunnerException {
     // Desactivate logback
     ch.qos.logback.classic.Logger log = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(FongoDBCollection.class);
@@ -886,6 +886,22 @@ public class ExpressionParserTest {
     assertEquals(-1, expressionParser.compareTo((double) -9223372036854775807L, -9223372036854775808L));
   }
 
+  @Test
+  public void testCompareScalarsLikeCompareTo() {
+    ExpressionParser expressionParser = new ExpressionParser();
+    Object[] values = {null, 1, -3, 2L, Long.MAX_VALUE, (short) 2, 1.5D, -0.0D, 2D, 2.5F, 1e300, "", "a", "ab", "b",
+        new ObjectId("507f1f77bcf86cd799439011"), new ObjectId("507f1f77bcf86cd799439012"), true, false,
+        new Date(0), new Date(1000)};
+    for (Object value1 : values) {
+      for (Object value2 : values) {
+        int compare = ExpressionParser.compareScalars(value1, value2);
+        if (compare != Integer.MIN_VALUE) {
+          assertEquals(value1 + " vs " + value2, expressionParser.compareTo(value1, value2, false).intValue(), compare);
+        }
+      }
+    }
+  }
+
   @Test
   public void testCompareToBinary() {
     ExpressionParser expressionParser = new ExpressionParser();
@@ -1069,6 +1085,80 @@ public class ExpressionParserTest {
     assertTrue(results.isEmpty());
   }
 
+  @Test
+  public void testQueriesOfTheSameShapeUseTheirOwnValues() {
+    ExpressionParser ep = new ExpressionParser();
+    DBObject neil = new BasicDBObject("n", "neil").append("a", 1);
+    DBObject fred = new BasicDBObject("n", "fred").append("a", 2);
+    DBObject ted = new BasicDBObject("n", "ted").append("a", asList(3, 4));
+
+    for (int i = 0; i < 2; i++) {
+      assertTrue(ep.buildFilter(new BasicDBObject("a", 1)).apply(neil));
+      assertTrue(ep.buildFilter(new BasicDBObject("a", 4)).apply(ted));
+      assertTrue(!ep.buildFilter(new BasicDBObject("a", 2)).apply(neil));
+      assertTrue(ep.buildFilter(new BasicDBObject("a", new BasicDBObject("$gt", 1).append("$lt", 3))).apply(fred));
+      assertTrue(!ep.buildFilter(new BasicDBObject("a", new BasicDBObject("$gt", 2).append("$lt", 3))).apply(fred));
+      assertTrue(ep.buildFilter(new BasicDBObject("a", new BasicDBObject("$not", new BasicDBObject("$in", asList(1, 3))))).apply(fred));
+      assertTrue(!ep.buildFilter(new BasicDBObject("a", new BasicDBObject("$not", new BasicDBObject("$in", asList(2, 3))))).apply(fred));
+      assertTrue(ep.buildFilter(new BasicDBObject("n", Pattern.compile("^f"))).apply(fred));
+      assertTrue(!ep.buildFilter(new BasicDBObject("n", Pattern.compile("^t"))).apply(fred));
+      // Not the same shape : the number of queries of the $or.
+      assertTrue(ep.buildFilter(new BasicDBObject("$or", asList(new BasicDBObject("a", 5), new BasicDBObject("n", "fred")))).apply(fred));
+      assertTrue(!ep.buildFilter(new BasicDBObject("$or", asList(new BasicDBObject("a", 5)))).apply(fred));
+      assertTrue(ep.buildFilter(new BasicDBObject("$nor", asList(new BasicDBObject("a", 5)))).apply(fred));
+    }
+  }
+
+  @Test
+  public void testEqualityOnEmbeddedFields() {
+    ObjectId id = new ObjectId();
+    DBObject profile = new BasicDBObject("_id", 1).append("profile", new BasicDBObject("country", "fr").append("age", 30L).append("ref", id));
+    DBObject profiles = new BasicDBObject("_id", 2).append("profile", asList(new BasicDBObject("country", "us"), new BasicDBObject("country", "fr").append("age", 30)));
+    DBObject countries = new BasicDBObject("_id", 3).append("profile", new BasicDBObject("country", asList("de", "fr")).append("age", 30.0D));
+    DBObject noProfile = new BasicDBObject("_id", 4).append("profile", "none");
+    DBObject[] objects = {profile, profiles, countries, noProfile};
+
+    assertEquals(asList(profile, profiles, countries), doFilter(new BasicDBObject("profile.country", "fr"), objects));
+    assertEquals(asList(profiles), doFilter(new BasicDBObject("profile.country", "us"), objects));
+    assertEquals(asList(profile, profiles, countries), doFilter(new BasicDBObject("profile.age", 30), objects));
+    assertEquals(asList(profile), doFilter(new BasicDBObject("profile.ref", id), objects));
+    assertEquals(asList(profiles), doFilter(new BasicDBObject("profile.1.country", "fr"), objects));
+    assertEquals(Collections.<DBObject>emptyList(), doFilter(new BasicDBObject("profile.country.name", "fr"), objects));
+  }
+
+  @Test
+  public void testRegisteredOperator() {
+    DBObject fred = new BasicDBObject("n", "fred").append("a", 2);
+    DBObject ted = new BasicDBObject("n", "ted").append("a", 3);
+    DBObject query = new BasicDBObject("n", new BasicDBObject("$startsWith", "fr")).append("a", new BasicDBObject("$gt", 1));
+    OperatorRegistry operators = new OperatorRegistry();
+    ExpressionParser ep = new ExpressionParser(operators);
+    Filter before = ep.buildFilter(query);
+
+    operators.register("$startsWith", new ExpressionParser.FilterFactory() {
+      @Override
+      public Filter createFilter(final List<String> path, final DBObject refExpression) {
+        return new Filter() {
+          @Override
+          public boolean apply(DBObject o) {
+            Object value = o.get(path.get(0));
+            return value instanceof String && ((String) value).startsWith((String) refExpression.get("$startsWith"));
+          }
+        };
+      }
+    });
+    // The queries already compiled see the operator.
+    Filter after = ep.buildFilter(query);
+    assertTrue(after.apply(fred));
+    assertTrue(!after.apply(ted));
+    assertTrue(!before.apply(fred));
+    // Only the parsers of this registry.
+    assertEquals(Collections.<DBObject>emptyList(), doFilter(query, fred, ted));
+
+    operators.unregister("$startsWith");
+    assertTrue(!ep.buildFilter(query).apply(fred));
+  }
+
   private void assertQuery(BasicDBObject query, List<DBObject> expected) {
     List<DBObject> results = doFilter(
         query,
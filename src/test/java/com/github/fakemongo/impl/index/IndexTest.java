@@ -2,12 +2,18 @@ package com.github.fakemongo.impl.index;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 import org.junit.Test;
 
+import com.github.fakemongo.impl.ExpressionParser;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
 
 /**
  * Unit tests for {@link Index}.
@@ -155,4 +161,153 @@ public class IndexTest {
     final String fithLevelValue = (String) topLevelObject.get(FIFTH_LEVEL_KEY);
     assertThat(fithLevelValue).isEqualTo(FIFTH_LEVEL_VALUE);
   }
+
+  /**
+   * Test {@link IndexKeyExtractor#extract(DBObject)} gives the projection of the keys.
+   */
+  @Test
+  public void testKeyExtractorGivesTheProjectionOfTheKeys() {
+    final DBObject[] specs = {
+        new BasicDBObject("a", 1).append("_id", 0),
+        new BasicDBObject("a", 1).append("b", 1).append("_id", 0),
+        new BasicDBObject("a.b", 1).append("_id", 0),
+        new BasicDBObject("a.b", 1).append("a.c", 1).append("_id", 0),
+        new BasicDBObject("a.b.c", 1).append("d", 1).append("_id", 0),
+        new BasicDBObject(ID_KEY, 1),
+        new BasicDBObject("a", 1).append(ID_KEY, 1)};
+    final DBObject[] objects = {
+        new BasicDBObject(ID_KEY, 1),
+        new BasicDBObject(ID_KEY, 2).append("a", 1).append("b", "b").append("d", null),
+        new BasicDBObject(ID_KEY, 3).append("a", new BasicDBObject("b", 1).append("c", new BasicDBObject("x", 1))),
+        new BasicDBObject(ID_KEY, 4).append("a", Arrays.asList(1, new BasicDBObject("b", 2), new BasicDBObject("c", 3), new BasicDBObject("d", 4))),
+        new BasicDBObject(ID_KEY, 5).append("a", new BasicDBObject("b", Arrays.asList(new BasicDBObject("c", 1), new BasicDBObject(), 2))),
+        new BasicDBObject(ID_KEY, new BasicDBObject("x", 1)).append("a", Arrays.asList(new BasicDBObject("b", Arrays.asList(new BasicDBObject(), 1)))),
+        new BasicDBObject(ID_KEY, 7).append("a", "a").append("d", Arrays.asList(new BasicDBObject(), new BasicDBObject("e", 1)))};
+
+    for (DBObject spec : specs) {
+      final IndexKeyExtractor extractor = IndexKeyExtractor.compile(spec);
+      assertThat(extractor).isNotNull();
+      for (DBObject object : objects) {
+        final DBObject expected = IndexKeyExtractor.project(object, spec);
+        final DBObject key = extractor.extract(object);
+        assertThat(key.toString()).as(spec + " of " + object).isEqualTo(expected.toString());
+        assertThat(key).isEqualTo(expected);
+      }
+    }
+  }
+
+  /**
+   * Test {@link IndexKeyExtractor#compile(DBObject)} leaves the unusual keys to the projection.
+   */
+  @Test
+  public void testKeyExtractorOnlyForPathsOfFields() {
+    assertThat(IndexKeyExtractor.compile(new BasicDBObject("_id.a", 1))).isNull();
+    assertThat(IndexKeyExtractor.compile(new BasicDBObject("a", 1).append("a.b", 1).append("_id", 0))).isNull();
+    assertThat(IndexKeyExtractor.compile(new BasicDBObject("a", "text").append("_id", 0))).isNull();
+  }
+
+  /**
+   * Test {@link IndexKeyEncoding} gives the order of the comparator of the keys.
+   */
+  @Test
+  public void testKeyEncodingGivesTheOrderOfTheComparator() {
+    final Object[] values = {null, -5, 0, 1, 2L, 1.5D, 3D, (short) 2, "", "a", "ab", "b", "\u00e9",
+        new ObjectId("507f1f77bcf86cd799439011"), new ObjectId("ff7f1f77bcf86cd799439011"), false, true,
+        new Date(-1000), new Date(0), new Date(1000), new BasicDBObject(), new BasicDBObject("b", 1),
+        new BasicDBObject("b", "x").append("c", 1), new BasicDBObject("c", 0)};
+    final List<DBObject> keys = new ArrayList<DBObject>();
+    for (Object value : values) {
+      final IndexKey key = new IndexKey();
+      key.put("a", value);
+      keys.add(key);
+      final IndexKey compoundKey = new IndexKey();
+      compoundKey.put("a", value);
+      compoundKey.put("b", value);
+      keys.add(compoundKey);
+    }
+    keys.add(new IndexKey());
+
+    final ExpressionParser.ObjectComparator comparator = new ExpressionParser().buildObjectComparator(true);
+    for (DBObject key1 : keys) {
+      for (DBObject key2 : keys) {
+        final byte[] encoded1 = IndexKeyEncoding.encode(key1);
+        final byte[] encoded2 = IndexKeyEncoding.encode(key2);
+        assertThat(encoded1).isNotNull();
+        assertThat(Integer.signum(IndexKeyEncoding.compare(encoded1, encoded2))).as(key1 + " vs " + key2)
+            .isEqualTo(Integer.signum(comparator.compare(key1, key2)));
+      }
+    }
+  }
+
+  /**
+   * Test {@link IndexKeyEncoding#encode(DBObject)} leaves the values compared as decimals to the comparator.
+   */
+  @Test
+  public void testKeyEncodingOnlyForExactValues() {
+    assertThat(IndexKeyEncoding.encode(new BasicDBObject("a", Long.MAX_VALUE))).isNull();
+    assertThat(IndexKeyEncoding.encode(new BasicDBObject("a", 1.5F))).isNull();
+    assertThat(IndexKeyEncoding.encode(new BasicDBObject("a", -0.0D))).isNull();
+    assertThat(IndexKeyEncoding.encode(new BasicDBObject("a", Double.NaN))).isNull();
+    assertThat(IndexKeyEncoding.encode(new BasicDBObject("a", Arrays.asList(1, 2)))).isNull();
+  }
+
+  /**
+   * Test {@link IndexAbstract#build(List, int)} gives the index of {@link IndexAbstract#addOrUpdate(DBObject, DBObject)}.
+   */
+  @Test
+  public void testBuildGivesTheIndexOfTheInserts() {
+    final DBObject[] specs = {
+        new BasicDBObject("a", 1),
+        new BasicDBObject("a", -1),
+        new BasicDBObject("a", 1).append("b", -1),
+        new BasicDBObject("a", 1).append("b", 1).append("c", 1),
+        new BasicDBObject("l", 1)};
+    final List<DBObject> objects = new ArrayList<DBObject>();
+    for (int i = 0; i < 1000; i++) {
+      final DBObject object = new BasicDBObject(ID_KEY, i).append("a", i % 7 == 0 ? "a" + (i % 5) : i % 13);
+      if (i % 3 != 0) {
+        object.put("b", i % 2 == 0 ? null : new Date(i % 11));
+      }
+      if (i % 4 != 0) {
+        object.put("c", i % 2);
+      }
+      object.put("l", Arrays.asList(i % 17, new BasicDBObject("x", i % 3), i % 17));
+      objects.add(object);
+    }
+
+    for (DBObject spec : specs) {
+      for (int threads = 1; threads <= 4; threads += 3) {
+        final Index inserted = new Index(INDEX_NAME, spec, !UNIQUE, SPARSE);
+        for (DBObject object : objects) {
+          if (inserted.canIndex(object)) {
+            inserted.addOrUpdate(object, null);
+          }
+        }
+        final Index built = new Index(INDEX_NAME, spec, !UNIQUE, SPARSE);
+        assertThat(built.build(objects, threads)).isEmpty();
+
+        assertThat(built.size()).as(spec.toString()).isEqualTo(inserted.size());
+        assertThat(built.isMultiKey()).isEqualTo(inserted.isMultiKey());
+        assertThat(new ArrayList<DBObject>(built.mapValues.keySet())).isEqualTo(new ArrayList<DBObject>(inserted.mapValues.keySet()));
+        assertThat(built.values()).isEqualTo(inserted.values());
+      }
+    }
+  }
+
+  /**
+   * Test {@link IndexAbstract#build(List, int)} gives the first duplicate key of the inserts.
+   */
+  @Test
+  public void testBuildGivesTheFirstDuplicateKey() {
+    final List<DBObject> objects = new ArrayList<DBObject>();
+    for (int i = 0; i < 100; i++) {
+      objects.add(new BasicDBObject(ID_KEY, i).append("a", i == 50 ? 7 : (i == 80 ? 3 : 100 - i)));
+    }
+    final Index index = new Index(INDEX_NAME, new BasicDBObject("a", 1), UNIQUE, SPARSE);
+    assertThat(index.build(objects, 2)).isEqualTo(Arrays.<List<Object>>asList(Arrays.<Object>asList(7)));
+
+    objects.set(50, new BasicDBObject(ID_KEY, 50));
+    assertThat(new Index(INDEX_NAME, new BasicDBObject("a", 1), UNIQUE, SPARSE).build(objects, 1))
+        .isEqualTo(Arrays.<List<Object>>asList(Arrays.<Object>asList(3)));
+  }
 }
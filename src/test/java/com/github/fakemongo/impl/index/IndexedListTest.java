@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -176,4 +177,47 @@ public class IndexedListTest {
         assertFalse(list.contains(firstElement));
         assertFalse(list.contains(secondElement));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRemoveKeepsTheOrder() throws Exception {
+        List<Integer> innerList = new ArrayList<Integer>();
+        innerList.add(1);
+        IndexedList<Integer> list = new IndexedList<Integer>(innerList);
+        list.add(2);
+        list.add(3);
+        list.add(2);
+        list.add(4);
+
+        list.remove(2);
+        assertEquals(Arrays.asList(1, 3, 2, 4), list.getElements());
+
+        list.remove(1);
+        list.remove(4);
+        assertEquals(Arrays.asList(3, 2), list.getElements());
+        assertTrue(list.contains(2));
+
+        list.remove(2);
+        list.add(5);
+        assertEquals(Arrays.asList(3, 5), list.getElements());
+        assertFalse(list.contains(2));
+        assertEquals(2, list.size());
+    }
+
+    @Test
+    public void testRemoveFromALargeList() throws Exception {
+        IndexedList<Integer> list = new IndexedList<Integer>(new ArrayList<Integer>());
+        for (int i = 0; i < 100000; i++) {
+            list.add(i);
+        }
+        for (int i = 0; i < 100000; i += 2) {
+            list.remove(i);
+        }
+
+        assertEquals(50000, list.size());
+        int expected = 1;
+        for (Integer element : list.getElements()) {
+            assertEquals(expected, element.intValue());
+            expected += 2;
+        }
+    }
+}